@@ -0,0 +1,27 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks in this directory with the GC profiler, so that every
+ * result comes with its allocation rate (gc.alloc.rate.norm is bytes per
+ * operation). The arguments are regexps selecting benchmarks, e.g.
+ * "NGramMapQueryBenchmark.summed"; with none, every benchmark runs.
+ *
+ * bench/pom.xml compiles the benchmarks with src/ and the JMH annotation
+ * processor, and runs this class from the project directory, where the data
+ * files in utils.Utils are. The same classes also run under JMH's own main,
+ * org.openjdk.jmh.Main, with "-prof gc".
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException {
+        OptionsBuilder options = new OptionsBuilder();
+        for (String include : args) {
+            options.include(include);
+        }
+        new Runner(options.addProfiler(GCProfiler.class).shouldFailOnError(true).build()).run();
+    }
+}
@@ -0,0 +1,78 @@
+package bench;
+
+import ngrams.NGramMap;
+import ngrams.StorageMode;
+import ngrams.TimeSeries;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static utils.Utils.*;
+
+/**
+ * Decoding cost of compressed storage, against plain columns, on an NGramMap of
+ * TOP_49887_WORDS_FILE. summedWeightHistory streams through the block of every
+ * word, so its time divided by the points summed is the decode throughput;
+ * readHistory reads one word's points through a TimeSeries, which decodes the
+ * word into a per-thread buffer. The setup prints the bytes per point that
+ * each storage mode holds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class CompressedStorageBenchmark {
+
+    @Param({"PLAIN", "COMPRESSED"})
+    public StorageMode storageMode;
+
+    private NGramMap ngm;
+    private List<String> words;
+    private String[] sample;
+    private int next;
+
+    @Setup
+    public void load() {
+        NGramMap plain = new NGramMap(TOP_49887_WORDS_FILE, TOTAL_COUNTS_FILE);
+        // Compress even for PLAIN, so that both runs print the compressed size to compare.
+        NGramMap compressed = plain.withStorageMode(StorageMode.COMPRESSED);
+        ngm = storageMode == StorageMode.PLAIN ? plain : compressed;
+        words = ngm.matchingWords("*");
+        // Cycle through words spread over the vocabulary, so that no word stays decoded.
+        sample = new String[64];
+        for (int i = 0; i < sample.length; i += 1) {
+            sample[i] = words.get((int) ((long) i * words.size() / sample.length));
+        }
+    }
+
+    @Benchmark
+    public TimeSeries summedWeightHistory() {
+        return ngm.summedWeightHistory(words, 1400, 2020);
+    }
+
+    @Benchmark
+    public double readHistory() {
+        String word = sample[next];
+        next = (next + 1) % sample.length;
+        TimeSeries ts = ngm.countHistory(word);
+        double sum = 0;
+        for (int i = 0; i < ts.size(); i += 1) {
+            sum += ts.valueAt(i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,59 @@
+package bench;
+
+import ngrams.LoadMode;
+import ngrams.NGramMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static utils.Utils.*;
+
+/**
+ * Time and allocation to build an NGramMap from each data file in
+ * utils.Utils, parsed sequentially and in parallel. See
+ * NGramMapSnapshotBenchmark for loading from a snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class NGramMapLoadBenchmark {
+
+    @Param({"SHORT", "Q_WORDS", "TOP_14337", "TOP_49887"})
+    public String dataset;
+
+    @Param({"SEQUENTIAL", "PARALLEL"})
+    public LoadMode mode;
+
+    static String wordsFile(String dataset) {
+        switch (dataset) {
+            case "SHORT":
+                return SHORT_WORDS_FILE;
+            case "Q_WORDS":
+                return Q_WORDS_FILE;
+            case "TOP_14337":
+                return TOP_14337_WORDS_FILE;
+            case "TOP_49887":
+                return TOP_49887_WORDS_FILE;
+            default:
+                throw new IllegalArgumentException("No such dataset: " + dataset);
+        }
+    }
+
+    @Benchmark
+    public NGramMap construct() {
+        return new NGramMap(wordsFile(dataset), TOTAL_COUNTS_FILE, mode);
+    }
+}
@@ -0,0 +1,101 @@
+package bench;
+
+import ngrams.NGramMap;
+import ngrams.TimeSeries;
+import ngrams.WeightMode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static utils.Utils.*;
+
+/**
+ * Time and allocation per query on an NGramMap of TOP_14337_WORDS_FILE, with
+ * weights computed on the fly and precomputed. Only summedWeightHistory runs
+ * once per number of words, so its map and words are a State of their own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class NGramMapQueryBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Single {
+        @Param({"ON_THE_FLY", "PRECOMPUTED"})
+        public WeightMode weightMode;
+
+        private NGramMap ngm;
+
+        @Setup
+        public void load() {
+            ngm = new NGramMap(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE).withWeightMode(weightMode);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Summed {
+        @Param({"ON_THE_FLY", "PRECOMPUTED"})
+        public WeightMode weightMode;
+
+        /** How many words summedWeightHistory adds up. */
+        @Param({"1", "10", "1000"})
+        public int words;
+
+        private NGramMap ngm;
+        private List<String> summed;
+
+        @Setup
+        public void load() {
+            ngm = new NGramMap(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE).withWeightMode(weightMode);
+            List<String> all = ngm.matchingWords("*");
+            if (all.size() < words) {
+                throw new IllegalArgumentException("Only " + all.size() + " words to sum, not " + words + ".");
+            }
+            // Spread over the vocabulary, rather than the first words in order.
+            summed = new ArrayList<>(words);
+            for (int i = 0; i < words; i += 1) {
+                summed.add(all.get((int) ((long) i * all.size() / words)));
+            }
+        }
+    }
+
+    @Benchmark
+    public TimeSeries countHistoryBounded(Single s) {
+        return s.ngm.countHistory("fish", 1900, 1950);
+    }
+
+    @Benchmark
+    public TimeSeries countHistoryUnbounded(Single s) {
+        return s.ngm.countHistory("fish");
+    }
+
+    @Benchmark
+    public TimeSeries weightHistoryBounded(Single s) {
+        return s.ngm.weightHistory("fish", 1900, 1950);
+    }
+
+    @Benchmark
+    public TimeSeries weightHistoryUnbounded(Single s) {
+        return s.ngm.weightHistory("fish");
+    }
+
+    @Benchmark
+    public TimeSeries summedWeightHistory(Summed s) {
+        return s.ngm.summedWeightHistory(s.summed, 1900, 2000);
+    }
+}
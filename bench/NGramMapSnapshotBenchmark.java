@@ -0,0 +1,38 @@
+package bench;
+
+import ngrams.NGramMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static utils.Utils.*;
+
+/**
+ * Time and allocation to open Q_WORDS_SNAPSHOT_FILE, with and without
+ * verifying its checksum. The snapshot must have been written first, e.g.
+ * by starting the server once.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class NGramMapSnapshotBenchmark {
+
+    @Benchmark
+    public NGramMap load() {
+        return new NGramMap(Q_WORDS_SNAPSHOT_FILE);
+    }
+
+    @Benchmark
+    public NGramMap loadWithoutChecksum() {
+        return new NGramMap(Q_WORDS_SNAPSHOT_FILE, false);
+    }
+}
@@ -0,0 +1,55 @@
+package bench;
+
+import ngrams.NGramMap;
+import ngrams.TimeSeries;
+import plotting.Plotter;
+
+import org.knowm.xchart.XYChart;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static utils.Utils.*;
+
+/**
+ * Time and allocation to render a history chart and encode it as the base-64
+ * PNG that HistoryHandler returns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+public class PlotterBenchmark {
+
+    private List<String> words;
+    private List<TimeSeries> histories;
+
+    @Setup
+    public void load() {
+        NGramMap ngm = new NGramMap(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE);
+        words = List.of("cat", "dog", "fish");
+        histories = new ArrayList<>();
+        for (String word : words) {
+            histories.add(ngm.weightHistory(word, 1800, 2000));
+        }
+    }
+
+    @Benchmark
+    public String generateAndEncode() {
+        XYChart chart = Plotter.generateTimeSeriesChart(words, histories);
+        return Plotter.encodeChartAsString(chart);
+    }
+}
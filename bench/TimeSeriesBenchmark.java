@@ -0,0 +1,55 @@
+package bench;
+
+import ngrams.NGramMap;
+import ngrams.TimeSeries;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static utils.Utils.*;
+
+/**
+ * Time and allocation of TimeSeries arithmetic, on the full history of a
+ * common word and the yearly totals.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimeSeriesBenchmark {
+
+    private TimeSeries fish;
+    private TimeSeries dog;
+    private TimeSeries totals;
+
+    @Setup
+    public void load() {
+        NGramMap ngm = new NGramMap(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE);
+        // Copies, so that the benchmarks measure plain series rather than views of the map.
+        fish = ngm.countHistory("fish").copy();
+        dog = ngm.countHistory("dog").copy();
+        totals = ngm.totalCountHistory().copy();
+    }
+
+    @Benchmark
+    public TimeSeries plus() {
+        return fish.plus(dog);
+    }
+
+    @Benchmark
+    public TimeSeries dividedBy() {
+        return fish.dividedBy(totals);
+    }
+}
@@ -0,0 +1,99 @@
+package browser;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative long values, such as latencies in nanoseconds,
+ * with buckets laid out like an HdrHistogram: each power of two is split into
+ * 16 equal buckets, so any value is kept to within 1/16 (about 6%) of itself,
+ * from 0 up to Long.MAX_VALUE, in 960 fixed counters.
+ *
+ * Recording is a handful of arithmetic instructions and three atomic adds,
+ * with no locking and no allocation, so it is cheap enough for every request.
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /** Returns the bucket of VALUE, which must not be negative. */
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Returns the lowest value in bucket INDEX. */
+    static long lowest(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BITS);
+    }
+
+    /** Returns the highest value in bucket INDEX. */
+    static long highest(int index) {
+        return index == BUCKETS - 1 ? Long.MAX_VALUE : lowest(index + 1) - 1;
+    }
+
+    /** Records VALUE. Negative values, e.g. from a clock going backwards, are recorded as 0. */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /** Returns how many values have been recorded. */
+    public long count() {
+        return count.sum();
+    }
+
+    /** Returns the sum of the values recorded. */
+    public long sum() {
+        return sum.sum();
+    }
+
+    /** Returns the largest value recorded, or 0 if there is none. */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns a value that QUANTILE (between 0 and 1) of the recorded values are at most:
+     * the highest value of the bucket holding that quantile, but never more than max().
+     * Returns 0 if nothing has been recorded.
+     */
+    public long valueAt(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("A quantile must be between 0 and 1, not " + quantile + ".");
+        }
+        // Totalled from the buckets themselves, which concurrent records may be ahead of count.
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i += 1) {
+            total += counts.get(i);
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS && total > 0; i += 1) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highest(i), max());
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,202 @@
+package browser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes JSON straight to an OutputStream as UTF-8 bytes, through a small
+ * buffer of its own, without building the document as a String first.
+ *
+ * Structure is up to the caller: this class only knows how to write single
+ * values and the punctuation between them.
+ */
+public class JsonOutput {
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[8192];
+    private int used;
+
+    /** A high surrogate waiting for the low surrogate that follows it, or 0. */
+    private char highSurrogate;
+
+    public JsonOutput(OutputStream out) {
+        this.out = out;
+    }
+
+    private void ensure(int n) throws IOException {
+        if (used + n > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, used);
+        used = 0;
+    }
+
+    /** Writes the ASCII character C, such as a bracket or a comma. */
+    public JsonOutput raw(char c) throws IOException {
+        ensure(1);
+        buffer[used++] = (byte) c;
+        return this;
+    }
+
+    /** Writes the ASCII text S as is. */
+    public JsonOutput raw(String s) throws IOException {
+        for (int i = 0; i < s.length(); i += 1) {
+            raw(s.charAt(i));
+        }
+        return this;
+    }
+
+    /** Writes S as a quoted, escaped JSON string. */
+    public JsonOutput string(CharSequence s) throws IOException {
+        raw('"');
+        escape(s, 0, s.length());
+        endEscape();
+        return raw('"');
+    }
+
+    /**
+     * Returns an Appendable that escapes whatever is appended to it into the contents of
+     * a JSON string. The caller writes the quotes around it with raw('"'), and must call
+     * endString() before writing the closing quote. Lets a long string be streamed in
+     * pieces rather than built up first.
+     */
+    public Appendable stringContents() {
+        return new Appendable() {
+            @Override
+            public Appendable append(CharSequence s) throws IOException {
+                escape(s, 0, s.length());
+                return this;
+            }
+
+            @Override
+            public Appendable append(CharSequence s, int start, int end) throws IOException {
+                escape(s, start, end);
+                return this;
+            }
+
+            @Override
+            public Appendable append(char c) throws IOException {
+                escape(c);
+                return this;
+            }
+        };
+    }
+
+    /** Finishes the string written through stringContents(), before its closing quote. */
+    public JsonOutput endString() throws IOException {
+        endEscape();
+        return this;
+    }
+
+    private void escape(CharSequence s, int start, int end) throws IOException {
+        for (int i = start; i < end; i += 1) {
+            escape(s.charAt(i));
+        }
+    }
+
+    private void escape(char c) throws IOException {
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                utf8(Character.toCodePoint(high, c));
+                return;
+            }
+            utf8(0xFFFD);
+        }
+        if (c == '"' || c == '\\') {
+            raw('\\').raw(c);
+        } else if (c == '\n') {
+            raw("\\n");
+        } else if (c == '\r') {
+            raw("\\r");
+        } else if (c == '\t') {
+            raw("\\t");
+        } else if (c < 0x20) {
+            raw("\\u00").raw(Character.forDigit(c >> 4, 16)).raw(Character.forDigit(c & 0xF, 16));
+        } else if (c < 0x80) {
+            raw(c);
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            utf8(0xFFFD);
+        } else {
+            utf8(c);
+        }
+    }
+
+    /** Writes a replacement for a high surrogate left without its low surrogate. */
+    private void endEscape() throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            utf8(0xFFFD);
+        }
+    }
+
+    private void utf8(int cp) throws IOException {
+        ensure(4);
+        if (cp < 0x800) {
+            buffer[used++] = (byte) (0xC0 | (cp >> 6));
+        } else if (cp < 0x10000) {
+            buffer[used++] = (byte) (0xE0 | (cp >> 12));
+            buffer[used++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        } else {
+            buffer[used++] = (byte) (0xF0 | (cp >> 18));
+            buffer[used++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            buffer[used++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        }
+        buffer[used++] = (byte) (0x80 | (cp & 0x3F));
+    }
+
+    /** Writes N in decimal. */
+    public JsonOutput number(long n) throws IOException {
+        ensure(20);
+        if (n == Long.MIN_VALUE) {
+            return raw(Long.toString(n));
+        }
+        if (n < 0) {
+            buffer[used++] = '-';
+            n = -n;
+        }
+        int end = used + digits(n);
+        for (int i = end - 1; i >= used; i -= 1) {
+            buffer[i] = (byte) ('0' + n % 10);
+            n /= 10;
+        }
+        used = end;
+        return this;
+    }
+
+    private static int digits(long n) {
+        int d = 1;
+        while (n >= 10) {
+            n /= 10;
+            d += 1;
+        }
+        return d;
+    }
+
+    /**
+     * Writes X. Whole numbers, which is what most counts are, are written as integers
+     * without going through a String. JSON has no NaN or infinity, so those are written
+     * as null.
+     */
+    public JsonOutput number(double x) throws IOException {
+        if (Double.isNaN(x) || Double.isInfinite(x)) {
+            return raw("null");
+        }
+        if (x == Math.rint(x) && Math.abs(x) < 1e15) {
+            return number((long) x);
+        }
+        return raw(Double.toString(x));
+    }
+
+    /** Writes anything still buffered and flushes the underlying stream. */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+}
@@ -0,0 +1,226 @@
+package browser;
+
+import spark.Route;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Request metrics for an NgordnetServer, exposed in the Prometheus text
+ * format: per-endpoint latency histograms broken down by phase, the number of
+ * words per query, error counts, and gauges such as cache hits or pool queues.
+ *
+ * Phases are recorded by whatever code runs a request, without passing the
+ * metrics around: the server marks the thread that runs a request with its
+ * endpoint, and Metrics.recordPhase records against that endpoint. On threads
+ * that are not running a request, such as in tests, recording does nothing.
+ * The phases recorded are
+ *
+ *   total      the whole request, as seen by the web server's request thread
+ *   queue      waiting for a worker of a QueryPool
+ *   parse      reading the query parameters or body
+ *   handle     answering the query; for streaming handlers, this includes
+ *              writing the response
+ *   lookup, chart, encode
+ *              the parts of answering a chart query: reading the data,
+ *              building the chart and encoding it as a PNG
+ *   serialize  turning the answer into JSON
+ */
+public class Metrics {
+
+    /** The quantiles written for every histogram. */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    /** The request a thread is running: which Metrics it records to, and for which endpoint. */
+    private record Scope(Metrics metrics, String endpoint) {
+    }
+
+    private record Key(String endpoint, String name) {
+    }
+
+    private record Gauge(String name, String labels, String type, String help, LongSupplier value) {
+    }
+
+    private final Map<Key, Histogram> latencies = new ConcurrentHashMap<>();
+    private final Map<Key, Histogram> values = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+
+    /** Returns the latency histogram, in nanoseconds, of PHASE of requests to ENDPOINT. */
+    public Histogram latency(String endpoint, String phase) {
+        return latencies.computeIfAbsent(new Key(endpoint, phase), k -> new Histogram());
+    }
+
+    /** Returns the histogram of the values called NAME recorded by requests to ENDPOINT. */
+    public Histogram values(String endpoint, String name) {
+        return values.computeIfAbsent(new Key(endpoint, name), k -> new Histogram());
+    }
+
+    /** Returns how many requests to ENDPOINT have failed, including those turned away. */
+    public long errors(String endpoint) {
+        LongAdder n = errors.get(endpoint);
+        return n == null ? 0 : n.sum();
+    }
+
+    /**
+     * Exposes the value of VALUE as the metric NAME with LABELS (such as pool="render", or
+     * "" for none). TYPE is "gauge" or "counter". A metric already exposed under the same
+     * name and labels is left as it is.
+     */
+    public void gauge(String name, String labels, String type, String help, LongSupplier value) {
+        for (Gauge g : gauges) {
+            if (g.name().equals(name) && g.labels().equals(labels)) {
+                return;
+            }
+        }
+        gauges.add(new Gauge(name, labels, type, help, value));
+    }
+
+    /**
+     * Returns ROUTE with every request to it recorded under ENDPOINT: its total latency,
+     * any phases recorded while it runs, and whether it failed.
+     */
+    public Route timed(String endpoint, Route route) {
+        return (request, response) -> {
+            Scope outer = CURRENT.get();
+            CURRENT.set(new Scope(this, endpoint));
+            long start = System.nanoTime();
+            try {
+                return route.handle(request, response);
+            } catch (Exception | Error e) {
+                errors.computeIfAbsent(endpoint, k -> new LongAdder()).increment();
+                throw e;
+            } finally {
+                latency(endpoint, "total").record(System.nanoTime() - start);
+                CURRENT.set(outer);
+            }
+        };
+    }
+
+    /**
+     * Returns CALL made to run on another thread as part of the request running on this
+     * one: the time until it starts is recorded as the "queue" phase, and phases it records
+     * count towards this request.
+     */
+    static <T> Callable<T> propagate(Callable<T> call) {
+        Scope scope = CURRENT.get();
+        if (scope == null) {
+            return call;
+        }
+        long submitted = System.nanoTime();
+        return () -> {
+            Scope outer = CURRENT.get();
+            CURRENT.set(scope);
+            recordPhase("queue", submitted);
+            try {
+                return call.call();
+            } finally {
+                CURRENT.set(outer);
+            }
+        };
+    }
+
+    /** Records the time since STARTNANOS, a System.nanoTime(), as PHASE of the current request. */
+    public static void recordPhase(String phase, long startNanos) {
+        Scope scope = CURRENT.get();
+        if (scope != null) {
+            scope.metrics.latency(scope.endpoint, phase).record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /** Records VALUE in the histogram NAME of the current request's endpoint. */
+    public static void recordValue(String name, long value) {
+        Scope scope = CURRENT.get();
+        if (scope != null) {
+            scope.metrics.values(scope.endpoint, name).record(value);
+        }
+    }
+
+    /** Returns every metric in the Prometheus text exposition format. */
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            writePrometheus(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /** Writes every metric to OUT in the Prometheus text exposition format. */
+    public void writePrometheus(Appendable out) throws IOException {
+        writeSummaries(out, "ngordnet_request_seconds", "phase",
+                "Time spent in each phase of a request.", latencies, 1e-9);
+        writeSummaries(out, "ngordnet_query", "value",
+                "Sizes of queries, such as the number of words.", values, 1);
+
+        out.append("# HELP ngordnet_request_errors_total Requests that failed or were turned away.\n");
+        out.append("# TYPE ngordnet_request_errors_total counter\n");
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(errors).entrySet()) {
+            out.append("ngordnet_request_errors_total{endpoint=\"").append(escape(e.getKey())).append("\"} ")
+                    .append(Long.toString(e.getValue().sum())).append('\n');
+        }
+
+        // Every series of a metric must follow its one HELP and TYPE line, but gauges of the
+        // same name may have been registered apart, e.g. by one pool after another.
+        Map<String, List<Gauge>> byName = new TreeMap<>();
+        for (Gauge g : gauges) {
+            byName.computeIfAbsent(g.name(), name -> new ArrayList<>()).add(g);
+        }
+        for (List<Gauge> family : byName.values()) {
+            Gauge first = family.get(0);
+            out.append("# HELP ").append(first.name()).append(' ').append(first.help()).append('\n');
+            out.append("# TYPE ").append(first.name()).append(' ').append(first.type()).append('\n');
+            for (Gauge g : family) {
+                out.append(g.name());
+                if (!g.labels().isEmpty()) {
+                    out.append('{').append(g.labels()).append('}');
+                }
+                out.append(' ').append(Long.toString(g.value().getAsLong())).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Writes HISTOGRAMS as summaries called NAME, labelled by endpoint and LABEL, with their
+     * values multiplied by SCALE.
+     */
+    private static void writeSummaries(Appendable out, String name, String label, String help,
+                                       Map<Key, Histogram> histograms, double scale) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" summary\n");
+        Map<String, Histogram> sorted = new TreeMap<>();
+        for (Map.Entry<Key, Histogram> e : histograms.entrySet()) {
+            sorted.put("endpoint=\"" + escape(e.getKey().endpoint()) + "\"," + label + "=\""
+                    + escape(e.getKey().name()) + "\"", e.getValue());
+        }
+        for (Map.Entry<String, Histogram> e : sorted.entrySet()) {
+            Histogram h = e.getValue();
+            for (double q : QUANTILES) {
+                out.append(name).append('{').append(e.getKey()).append(",quantile=\"")
+                        .append(Double.toString(q)).append("\"} ")
+                        .append(Double.toString(h.valueAt(q) * scale)).append('\n');
+            }
+            out.append(name).append("_sum{").append(e.getKey()).append("} ")
+                    .append(Double.toString(h.sum() * scale)).append('\n');
+            out.append(name).append("_count{").append(e.getKey()).append("} ")
+                    .append(Long.toString(h.count())).append('\n');
+        }
+    }
+
+    /** Escapes S for use as a label value. */
+    static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
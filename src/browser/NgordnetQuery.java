@@ -1,12 +1,21 @@
 package browser;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by hug.
+ *
+ * OPTIONS holds any other parameters of the query by name, such as the size of a
+ * chart, for handlers that take them.
  */
 public record NgordnetQuery(List<String> words,
         int startYear,
         int endYear,
-        int k) {
+        int k,
+        Map<String, String> options) {
+
+    public NgordnetQuery(List<String> words, int startYear, int endYear, int k) {
+        this(words, startYear, endYear, k, Map.of());
+    }
 }
@@ -7,12 +7,18 @@ import spark.Response;
 import spark.Route;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public abstract class NgordnetQueryHandler implements Route {
     public abstract String handle(browser.NgordnetQuery q);
     private static final Gson gson = new Gson();
 
+    /** The parameters every query has; any others go into its options. */
+    private static final Set<String> QUERY_PARAMS = Set.of("words", "startYear", "endYear", "k");
+
     private static List<String> commaSeparatedStringToList(String s) {
         String[] requestedWords = s.split(",");
         for (int i = 0; i < requestedWords.length; i += 1) {
@@ -21,7 +27,7 @@ public abstract class NgordnetQueryHandler implements Route {
         return Arrays.asList(requestedWords);
     }
 
-    private static browser.NgordnetQuery readQueryMap(QueryParamsMap qm) {
+    static browser.NgordnetQuery readQueryMap(QueryParamsMap qm) {
         List<String> words = commaSeparatedStringToList(qm.get("words").value());
 
         int startYear;
@@ -46,14 +52,34 @@ public abstract class NgordnetQueryHandler implements Route {
             k = 0;
         }
 
-        return new browser.NgordnetQuery(words, startYear, endYear, k);
+        Map<String, String> options = new HashMap<>();
+        for (Map.Entry<String, String[]> e : qm.toMap().entrySet()) {
+            if (!QUERY_PARAMS.contains(e.getKey()) && e.getValue().length > 0) {
+                options.put(e.getKey(), e.getValue()[0]);
+            }
+        }
+
+        return new browser.NgordnetQuery(words, startYear, endYear, k, Map.copyOf(options));
+    }
+
+    /** Reads the query of REQUEST, recording the time taken and the number of words in Metrics. */
+    static NgordnetQuery readQuery(Request request) {
+        long start = System.nanoTime();
+        NgordnetQuery nq = readQueryMap(request.queryMap());
+        Metrics.recordPhase("parse", start);
+        Metrics.recordValue("words", nq.words().size());
+        return nq;
     }
 
     @Override
     public String handle(Request request, Response response) throws Exception {
-        QueryParamsMap qm = request.queryMap();
-        NgordnetQuery nq = readQueryMap(qm);
+        NgordnetQuery nq = readQuery(request);
+        long start = System.nanoTime();
         String queryResult = handle(nq);
-        return gson.toJson(queryResult);
+        Metrics.recordPhase("handle", start);
+        start = System.nanoTime();
+        String json = gson.toJson(queryResult);
+        Metrics.recordPhase("serialize", start);
+        return json;
     }
 }
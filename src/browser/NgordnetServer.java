@@ -1,16 +1,89 @@
 package browser;
 
+import spark.Route;
+
+import java.util.concurrent.RejectedExecutionException;
+
 import static spark.Spark.*;
 
 /**
  * Created by hug.
  */
 public class NgordnetServer {
+    /** Default size of the web server's own request thread pool. */
+    public static final int DEFAULT_REQUEST_THREADS = 64;
+
+    private final Metrics metrics = new Metrics();
+
+    /** Returns the metrics of the requests to every URL registered here. */
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Registers NQH at URL. Queries run on the web server's request threads.
+     */
     public void register(String URL, NgordnetQueryHandler nqh) {
-        get(URL, nqh);
+        get(URL, metrics.timed(URL, nqh));
+    }
+
+    /**
+     * Registers NQH at URL, running its queries on POOL rather than on the web
+     * server's request threads. When POOL's queue is full, the query is answered
+     * with 503 Service Unavailable.
+     */
+    public void register(String URL, NgordnetQueryHandler nqh, QueryPool pool) {
+        get(URL, metrics.timed(URL, pooled(nqh, pool)));
+    }
+
+    /**
+     * Registers ROUTE for POST requests to URL, running on POOL like the queries above.
+     */
+    public void registerPost(String URL, Route route, QueryPool pool) {
+        post(URL, metrics.timed(URL, pooled(route, pool)));
+    }
+
+    /** Serves the metrics of every URL registered here at URL, in the Prometheus text format. */
+    public void registerMetrics(String URL) {
+        get(URL, (request, response) -> {
+            response.type("text/plain; version=0.0.4; charset=utf-8");
+            return metrics.toPrometheus();
+        });
+    }
+
+    private Route pooled(Route route, QueryPool pool) {
+        String labels = "pool=\"" + Metrics.escape(pool.name()) + "\"";
+        metrics.gauge("ngordnet_pool_queued", labels, "gauge",
+                "Queries waiting for a worker of a query pool.", pool::queued);
+        metrics.gauge("ngordnet_pool_active", labels, "gauge",
+                "Queries being run by a query pool.", pool::active);
+        return (request, response) -> {
+            try {
+                return pool.call(Metrics.propagate(() -> route.handle(request, response)));
+            } catch (RejectedExecutionException e) {
+                response.header("Retry-After", "1");
+                halt(503, "The " + pool.name() + " pool is busy; try again shortly.");
+                return null;
+            }
+        };
     }
 
     public void startUp() {
+        startUp(DEFAULT_REQUEST_THREADS);
+    }
+
+    /**
+     * Starts the server with at most REQUESTTHREADS threads accepting requests. Queries
+     * registered with a QueryPool only hold a request thread while they wait for it.
+     */
+    public void startUp(int requestThreads) {
+        startUp(4567, requestThreads);
+    }
+
+    /** Starts the server on PORT, with at most REQUESTTHREADS threads accepting requests. */
+    public void startUp(int port, int requestThreads) {
+        port(port);
+        threadPool(requestThreads);
         staticFiles.externalLocation("static");
 
         /* Allow for all origin requests (since this is not an authenticated server, we do not
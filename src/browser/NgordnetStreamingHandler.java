@@ -0,0 +1,52 @@
+package browser;
+
+import spark.Request;
+import spark.Response;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A query handler that writes its JSON result straight to the response
+ * output stream, instead of returning a String that is then wrapped by
+ * Gson. Large results are never held in memory as a whole.
+ */
+public abstract class NgordnetStreamingHandler extends NgordnetQueryHandler {
+
+    /** Writes the result of Q to OUT as JSON. */
+    public abstract void handle(NgordnetQuery q, JsonOutput out) throws IOException;
+
+    /**
+     * Returns the result of Q as a JSON String. Meant for tests; the server
+     * streams the result instead.
+     */
+    @Override
+    public String handle(NgordnetQuery q) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            JsonOutput out = new JsonOutput(bytes);
+            handle(q, out);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String handle(Request request, Response response) throws Exception {
+        NgordnetQuery nq = readQuery(request);
+        response.type("application/json; charset=utf-8");
+        OutputStream os = response.raw().getOutputStream();
+        JsonOutput out = new JsonOutput(os);
+        long start = System.nanoTime();
+        handle(nq, out);
+        out.flush();
+        Metrics.recordPhase("handle", start);
+        // The body has already been written, so Spark must not add one.
+        return "";
+    }
+}
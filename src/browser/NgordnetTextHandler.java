@@ -0,0 +1,47 @@
+package browser;
+
+import spark.Request;
+import spark.Response;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A query handler whose result is plain text. The text is written to an
+ * Appendable, so the server can JSON-escape it straight into the response
+ * output stream instead of building it as a String and then copying it
+ * again through Gson.
+ */
+public abstract class NgordnetTextHandler extends NgordnetQueryHandler {
+
+    /** Writes the result of Q to OUT. */
+    public abstract void handle(NgordnetQuery q, Appendable out) throws IOException;
+
+    @Override
+    public String handle(NgordnetQuery q) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            handle(q, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String handle(Request request, Response response) throws Exception {
+        NgordnetQuery nq = readQuery(request);
+        response.type("application/json; charset=utf-8");
+        // JSON equivalent to what Gson would have made of handle(nq), written as it is
+        // produced. Gson writes =, <, >, & and ' as Unicode escapes and JsonOutput does not,
+        // so the bytes can differ, but the string parses the same.
+        JsonOutput out = new JsonOutput(response.raw().getOutputStream());
+        long start = System.nanoTime();
+        out.raw('"');
+        handle(nq, out.stringContents());
+        out.endString().raw('"');
+        out.flush();
+        Metrics.recordPhase("handle", start);
+        return "";
+    }
+}
@@ -0,0 +1,87 @@
+package browser;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of worker threads that queries registered with it run on,
+ * instead of on the web server's own request threads.
+ *
+ * Giving expensive queries (such as plots) a pool of their own caps how many
+ * cores they can take at once, so that cheap queries on another pool keep
+ * their latency while the server is busy drawing charts. The pool also caps
+ * how many queries may wait for a worker. A query that arrives when that
+ * queue is full is turned away straight away with 503 Service Unavailable,
+ * rather than tying up a request thread until it times out.
+ */
+public class QueryPool {
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Creates a pool called NAME with THREADS workers, which holds at most QUEUEDEPTH
+     * queries waiting for a worker.
+     */
+    public QueryPool(String name, int threads, int queueDepth) {
+        if (threads < 1 || queueDepth < 1) {
+            throw new IllegalArgumentException("A query pool needs at least one thread and one queue slot.");
+        }
+        this.name = name;
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueDepth), factory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** Returns the number of queries waiting for a worker. */
+    public int queued() {
+        return executor.getQueue().size();
+    }
+
+    /** Returns the number of queries being run right now. */
+    public int active() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Runs QUERY on this pool and waits for its result. Throws a RejectedExecutionException
+     * if the queue is full, and rethrows whatever QUERY throws. If the waiting thread is
+     * interrupted, QUERY is cancelled.
+     */
+    public <T> T call(Callable<T> query) throws Exception {
+        Future<T> future = executor.submit(query);
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    /** Stops accepting queries. Queries already accepted still run. */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,140 @@
+package main;
+
+import browser.JsonOutput;
+import browser.Metrics;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import ngrams.BatchQuery;
+import ngrams.NGramQueries;
+import ngrams.TimeSeries;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static spark.Spark.halt;
+
+/**
+ * Evaluates many weight history queries in one POST request. The body is a
+ * JSON array of queries:
+ *
+ *   [{"words":["airport","request"],"startYear":2000,"endYear":2010,"summed":true}, ...]
+ *
+ * startYear and endYear default to 1900 and 2020, as for the other queries.
+ * The response is a JSON array with one result per query, in order. A summed
+ * query gives {"years":[...],"values":[...]}; any other query gives one
+ * {"word":...,"years":[...],"values":[...]} per word, as /historydata does.
+ */
+public class BatchHandler implements Route {
+
+    private static final Gson gson = new Gson();
+
+    Supplier<? extends NGramQueries> maps;
+
+    public BatchHandler(NGramQueries map) {
+        this(() -> map);
+    }
+
+    /** Creates a handler that answers each batch from the map MAPS returns at the time. */
+    public BatchHandler(Supplier<? extends NGramQueries> maps) {
+        this.maps = maps;
+    }
+
+    /** One query of the request body, as Gson reads it. */
+    private static class Query {
+        List<String> words;
+        Integer startYear;
+        Integer endYear;
+        boolean summed;
+    }
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        Query[] queries;
+        List<BatchQuery> batch = new ArrayList<>();
+        // Evaluate the summed and per-word queries as two batches, so that each kind
+        // shares its word lookups across the whole request.
+        List<BatchQuery> summed = new ArrayList<>();
+        List<BatchQuery> perWord = new ArrayList<>();
+        List<TimeSeries> sums;
+        List<List<TimeSeries>> histories;
+        try {
+            long start = System.nanoTime();
+            queries = gson.fromJson(request.body(), Query[].class);
+            if (queries == null) {
+                queries = new Query[0];
+            }
+            for (Query q : queries) {
+                if (q == null || q.words == null) {
+                    throw new IllegalArgumentException("Every query needs a list of words.");
+                }
+                if (q.words.contains(null)) {
+                    throw new IllegalArgumentException("Words cannot be null.");
+                }
+                batch.add(new BatchQuery(q.words,
+                        q.startYear == null ? 1900 : q.startYear,
+                        q.endYear == null ? 2020 : q.endYear));
+                (q.summed ? summed : perWord).add(batch.get(batch.size() - 1));
+                Metrics.recordValue("words", q.words.size());
+            }
+            Metrics.recordPhase("parse", start);
+            Metrics.recordValue("queries", queries.length);
+            start = System.nanoTime();
+            // Both halves must come from the same NGramMap, even if it is swapped meanwhile.
+            NGramQueries map = maps.get();
+            sums = map.batchSummedWeightHistory(summed);
+            histories = map.batchWeightHistory(perWord);
+            Metrics.recordPhase("lookup", start);
+        } catch (JsonSyntaxException | IllegalArgumentException e) {
+            halt(400, "Bad batch request: " + e.getMessage());
+            return null;
+        }
+
+        response.type("application/json; charset=utf-8");
+        long start = System.nanoTime();
+        JsonOutput out = new JsonOutput(response.raw().getOutputStream());
+        write(queries, batch, sums, histories, out);
+        out.flush();
+        Metrics.recordPhase("serialize", start);
+        return "";
+    }
+
+    /**
+     * Writes the results of QUERIES to OUT in request order. SUMS and HISTORIES hold the
+     * results of the summed and the per-word queries, each in request order.
+     */
+    private static void write(Query[] queries, List<BatchQuery> batch, List<TimeSeries> sums,
+                              List<List<TimeSeries>> histories, JsonOutput out) throws IOException {
+        out.raw('[');
+        int s = 0;
+        int h = 0;
+        for (int i = 0; i < queries.length; i += 1) {
+            if (i > 0) {
+                out.raw(',');
+            }
+            if (queries[i].summed) {
+                out.raw('{');
+                HistoryDataHandler.writeSeries(sums.get(s++), out);
+                out.raw('}');
+                continue;
+            }
+            List<String> words = batch.get(i).words();
+            List<TimeSeries> series = histories.get(h++);
+            out.raw('[');
+            for (int j = 0; j < words.size(); j += 1) {
+                if (j > 0) {
+                    out.raw(',');
+                }
+                out.raw("{\"word\":").string(words.get(j)).raw(',');
+                HistoryDataHandler.writeSeries(series.get(j), out);
+                out.raw('}');
+            }
+            out.raw(']');
+        }
+        out.raw(']');
+    }
+}
@@ -0,0 +1,72 @@
+package main;
+
+import browser.JsonOutput;
+import browser.NgordnetQuery;
+import browser.NgordnetStreamingHandler;
+import ngrams.NGramQueries;
+import ngrams.TimeSeries;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Returns the data behind a history chart, for the browser to draw, as
+ *
+ *   [{"word":"airport","years":[2005,2006],"values":[2813,3017]}, ...]
+ *
+ * with one object per requested word, in the order the words were given.
+ */
+public class HistoryDataHandler extends NgordnetStreamingHandler {
+
+    Supplier<? extends NGramQueries> maps;
+
+    public HistoryDataHandler(NGramQueries map) {
+        this(() -> map);
+    }
+
+    /** Creates a handler that answers each query from the map MAPS returns at the time. */
+    public HistoryDataHandler(Supplier<? extends NGramQueries> maps) {
+        this.maps = maps;
+    }
+
+    @Override
+    public void handle(NgordnetQuery q, JsonOutput out) throws IOException {
+        NGramQueries map = maps.get();
+        out.raw('[');
+        boolean first = true;
+        List<TimeSeries> histories = map.countHistories(q.words(), q.startYear(), q.endYear());
+        for (int w = 0; w < histories.size(); w += 1) {
+            String word = q.words().get(w);
+            TimeSeries ts = histories.get(w);
+            if (!first) {
+                out.raw(',');
+            }
+            first = false;
+
+            out.raw("{\"word\":").string(word).raw(',');
+            writeSeries(ts, out);
+            out.raw('}');
+        }
+        out.raw(']');
+    }
+
+    /** Writes TS as "years":[...],"values":[...], for use inside a JSON object. */
+    static void writeSeries(TimeSeries ts, JsonOutput out) throws IOException {
+        out.raw("\"years\":[");
+        for (int i = 0; i < ts.size(); i += 1) {
+            if (i > 0) {
+                out.raw(',');
+            }
+            out.number(ts.yearAt(i));
+        }
+        out.raw("],\"values\":[");
+        for (int i = 0; i < ts.size(); i += 1) {
+            if (i > 0) {
+                out.raw(',');
+            }
+            out.number(ts.valueAt(i));
+        }
+        out.raw(']');
+    }
+}
@@ -1,28 +1,84 @@
 package main;
 
+import browser.Metrics;
 import browser.NgordnetQuery;
-import browser.NgordnetQueryHandler;
-import ngrams.NGramMap;
+import browser.NgordnetTextHandler;
+import ngrams.NGramQueries;
 import ngrams.TimeSeries;
+import plotting.ChartCache;
+import plotting.ChartOptions;
 import plotting.Plotter;
 import org.knowm.xchart.XYChart;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Supplier;
 
-public class HistoryHandler extends NgordnetQueryHandler {
+/**
+ * Draws the count histories of the words of a query as a chart, and returns it
+ * as a Base64-encoded PNG. The chart's size, the most points drawn per series
+ * and the PNG compression level can be given as the query options width,
+ * height, points and compression; see ChartOptions.
+ */
+public class HistoryHandler extends NgordnetTextHandler {
 
-    NGramMap map;
+    /** Default cache size: room for a few hundred typical charts. */
+    public static final long DEFAULT_CACHE_CHARS = 32L << 20;
 
-    public HistoryHandler(NGramMap map) {
-        this.map = map;
+    Supplier<? extends NGramQueries> maps;
+    private final ChartCache<NgordnetQuery> cache;
+
+    public HistoryHandler(NGramQueries map) {
+        this(() -> map, new ChartCache<>(DEFAULT_CACHE_CHARS));
+    }
+
+    /**
+     * Creates a handler that answers each query from the map MAPS returns at the
+     * time, and reuses charts from CACHE. CACHE must be invalidated whenever MAPS
+     * starts returning a different map.
+     */
+    public HistoryHandler(Supplier<? extends NGramQueries> maps, ChartCache<NgordnetQuery> cache) {
+        this.maps = maps;
+        this.cache = cache;
+    }
+
+    public ChartCache<NgordnetQuery> cache() {
+        return cache;
+    }
+
+    /**
+     * Returns Q with its words sorted and without duplicates or blanks, with k (which a
+     * history chart does not use) set to 0, and with every chart option spelled out.
+     * Queries that draw the same chart normalize to equal queries.
+     */
+    static NgordnetQuery normalize(NgordnetQuery q) {
+        TreeSet<String> words = new TreeSet<>();
+        for (String word : q.words()) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return new NgordnetQuery(List.copyOf(words), q.startYear(), q.endYear(), 0,
+                ChartOptions.from(q.options()).toParams());
     }
 
     @Override
-    public String handle(NgordnetQuery q) {
+    public void handle(NgordnetQuery q, Appendable out) throws IOException {
+        // Series are drawn in the normalized word order, so that every query
+        // sharing a cache entry would have drawn exactly the same chart.
+        NgordnetQuery key = normalize(q);
+        out.append(cache.get(key, () -> render(key)));
+    }
+
+    private String render(NgordnetQuery q) {
         // Get words, startyear, and endyear
        List<String> words = q.words();
        int startYear = q.startYear();
        int endYear = q.endYear();
+       ChartOptions options = ChartOptions.from(q.options());
+       NGramQueries map = maps.get();
+       long start = System.nanoTime();
 
         // Create graph elements, i.e., labels and latitudes
         ArrayList<TimeSeries> lts = new ArrayList<>();
@@ -30,16 +86,21 @@ public class HistoryHandler extends NgordnetQueryHandler {
 
         // Create a TimeSeries for each unigram, populating its history
         // between our specified year boundaries.
-        for (String word : words) {
-            TimeSeries ts = map.countHistory(word, startYear, endYear);
-            labels.add(word);
-            lts.add(ts);
+        List<TimeSeries> histories = map.countHistories(words, startYear, endYear);
+        for (int i = 0; i < words.size(); i += 1) {
+            labels.add(words.get(i));
+            lts.add(histories.get(i));
         }
-        
-        XYChart chart = Plotter.generateTimeSeriesChart(labels, lts);
-        String encodedImage = Plotter.encodeChartAsString(chart);
+
+        Metrics.recordPhase("lookup", start);
+        start = System.nanoTime();
+        XYChart chart = Plotter.generateTimeSeriesChart(labels, lts, options);
+        Metrics.recordPhase("chart", start);
+        start = System.nanoTime();
+        String encodedImage = Plotter.encodeChartAsString(chart, options.compressionLevel());
+        Metrics.recordPhase("encode", start);
 
         return encodedImage;
     }
-        
+
 }
@@ -1,44 +1,54 @@
 package main;
 
 import browser.NgordnetQuery;
-import browser.NgordnetQueryHandler;
-import ngrams.NGramMap;
+import browser.NgordnetTextHandler;
+import ngrams.NGramQueries;
 import ngrams.TimeSeries;
 
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Supplier;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-
-public class HistoryTextHandler extends NgordnetQueryHandler {
+public class HistoryTextHandler extends NgordnetTextHandler {
     
-    NGramMap ngm;
+    Supplier<? extends NGramQueries> maps;
+
+    public HistoryTextHandler(NGramQueries ngm) {
+        this(() -> ngm);
+    }
 
-    public HistoryTextHandler(NGramMap ngm) {
-        this.ngm = ngm;
+    /** Creates a handler that answers each query from the map MAPS returns at the time. */
+    public HistoryTextHandler(Supplier<? extends NGramQueries> maps) {
+        this.maps = maps;
     }
 
+    /**
+     * Writes one line per word, in the order the words were given, formatted as
+     * TimeSeries.toString would format the word's weight history.
+     */
     @Override
-    public String handle(NgordnetQuery q) {
-        List<String> words = q.words();
+    public void handle(NgordnetQuery q, Appendable out) throws IOException {
         int startYear = q.startYear();
         int endYear = q.endYear();
-        
-        String res = "";
-
-        HashMap<String, TimeSeries> histories = new HashMap<>();
-        
-        for (String word : words) {
-            histories.put(word, ngm.weightHistory(word, startYear, endYear));
+        NGramQueries ngm = maps.get();
+
+        // Lines are built one at a time in a reused buffer; StringBuilder formats
+        // ints and doubles directly, without boxing them.
+        StringBuilder line = new StringBuilder();
+        List<TimeSeries> histories = ngm.weightHistories(q.words(), startYear, endYear);
+        for (int w = 0; w < histories.size(); w += 1) {
+            String word = q.words().get(w);
+            TimeSeries ts = histories.get(w);
+            line.setLength(0);
+            line.append(word).append(": {");
+            for (int i = 0; i < ts.size(); i += 1) {
+                if (i > 0) {
+                    line.append(", ");
+                }
+                line.append(ts.yearAt(i)).append('=').append(ts.valueAt(i));
+            }
+            line.append("}\n");
+            out.append(line);
         }
-
-        for (Map.Entry<String, TimeSeries> p : histories.entrySet()) {
-            res += p.getKey() + ": ";
-            res += p.getValue().toString();
-            res += "\n";
-        }
-
-        return res;
     }
 }
@@ -1,11 +1,38 @@
 package main;
 
+import static spark.Spark.exception;
+import static spark.Spark.halt;
 import static utils.Utils.*;
 
+import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import spark.Request;
 
+import browser.NgordnetQuery;
 import browser.NgordnetServer;
+import browser.QueryPool;
+import ngrams.DeltaWatcher;
+import ngrams.LiveNGramMap;
 import ngrams.NGramMap;
+import ngrams.NGramQueries;
+import ngrams.Ranking;
+import ngrams.ShardUnavailableException;
+import ngrams.ShardedNGramMap;
+import ngrams.StorageMode;
+import ngrams.WeightMode;
+import plotting.ChartCache;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
 
 public class Main {
     static {
@@ -13,15 +40,200 @@ public class Main {
     }
     /* Do not delete or modify the code above! */
 
+    private static final Logger LOG = LoggerFactory.getLogger(Main.class);
+
     public static void main(String[] args) {
         NgordnetServer hns = new NgordnetServer();
 
-        NGramMap ngm = new NGramMap(Q_WORDS_FILE, TOTAL_COUNTS_FILE);
+        // A coordinator, started with -Dngordnet.shards, holds no words and sends every query
+        // to the shard servers; any other server answers from a map of its own, read
+        // through LIVE so that it can be updated while serving.
+        String shards = System.getProperty("ngordnet.shards");
+        LiveNGramMap live = shards == null ? new LiveNGramMap(loadServingMap()) : null;
+        Supplier<? extends NGramQueries> maps;
+        if (live != null) {
+            maps = live;
+        } else {
+            NGramQueries sharded = loadShardedMap(shards);
+            maps = () -> sharded;
+        }
+
+        // Plots are CPU-heavy, so they get a small pool of their own; text queries run on a
+        // separate pool and stay fast while plots are queued. Sizes can be overridden with
+        // -Dngordnet.renderThreads=N, -Dngordnet.queryThreads=N and so on.
+        int cores = Runtime.getRuntime().availableProcessors();
+        int renderThreads = Integer.getInteger("ngordnet.renderThreads", Math.max(1, cores / 2));
+        int queryThreads = Integer.getInteger("ngordnet.queryThreads", cores);
+        QueryPool renderPool = new QueryPool("render", renderThreads,
+                Integer.getInteger("ngordnet.renderQueue", 4 * renderThreads));
+        QueryPool queryPool = new QueryPool("query", queryThreads,
+                Integer.getInteger("ngordnet.queryQueue", 16 * queryThreads));
+
+        int port = Integer.getInteger("ngordnet.port", 4567);
+        hns.startUp(port, Integer.getInteger("ngordnet.requestThreads", NgordnetServer.DEFAULT_REQUEST_THREADS));
+        // Charts must be invalidated when the data changes, which a coordinator cannot see:
+        // its shards reload and apply deltas on their own. So a coordinator caches none.
+        ChartCache<NgordnetQuery> charts = new ChartCache<>(live == null ? 0
+                : Long.getLong("ngordnet.chartCacheChars", HistoryHandler.DEFAULT_CACHE_CHARS));
+        hns.metrics().gauge("ngordnet_chart_cache_hits_total", "", "counter",
+                "History charts served from the chart cache.", charts::hits);
+        hns.metrics().gauge("ngordnet_chart_cache_misses_total", "", "counter",
+                "History charts that had to be drawn.", charts::misses);
+        hns.metrics().gauge("ngordnet_chart_cache_chars", "", "gauge",
+                "Characters of encoded charts held by the chart cache.", charts::chars);
+        hns.register("history", new HistoryHandler(maps, charts), renderPool);
+        hns.register("historytext", new HistoryTextHandler(maps), queryPool);
+        hns.register("historydata", new HistoryDataHandler(maps), queryPool);
+        hns.registerPost("batch", new BatchHandler(maps), queryPool);
+        hns.register("topk", new TopKHandler(maps, Ranking.WEIGHT), queryPool);
+        hns.register("trending", new TopKHandler(maps, Ranking.RISE), queryPool);
+
+        // Prometheus can scrape request latencies and the gauges above from /metrics.
+        hns.registerMetrics("metrics");
+
+        if (live != null) {
+            registerLocal(hns, live, charts, queryPool);
+        } else {
+            // A shard that does not answer in time fails the query, not the server.
+            exception(ShardUnavailableException.class, (e, request, response) -> {
+                response.status(503);
+                response.body(e.getMessage());
+            });
+        }
+
+        System.out.println("Finished server startup! Visit http://localhost:" + port + "/ngordnet_2a.html");
+    }
+
+    /**
+     * Registers the endpoints that need a map held by this server, LIVE, rather than
+     * shard servers: similar words, reloading, and answering a coordinator as a shard.
+     */
+    private static void registerLocal(NgordnetServer hns, LiveNGramMap live, ChartCache<NgordnetQuery> charts,
+                                      QueryPool queryPool) {
+        live.addListener(ngm -> charts.invalidate());
+        hns.register("similar", new SimilarHandler(live), queryPool);
+        if (System.getProperty("ngordnet.shard") != null) {
+            // A coordinator started with -Dngordnet.shards sends its queries here.
+            hns.registerPost("shard", new ShardHandler(live), queryPool);
+        }
 
-        hns.startUp();
-        hns.register("history", new HistoryHandler(ngm));
-        hns.register("historytext", new HistoryTextHandler(ngm));
+        // Rebuilds the map from the data files in the background, then swaps it in. Only
+        // callers on this machine, or that send -Dngordnet.reloadToken as the X-Reload-Token
+        // header, may reload, and only one reload runs at a time.
+        String reloadToken = System.getProperty("ngordnet.reloadToken");
+        hns.registerPost("reload", (request, response) -> {
+            if (!mayReload(request, reloadToken)) {
+                halt(403, "Reloading is only allowed from localhost or with the reload token.");
+            }
+            if (live.isReloading()) {
+                halt(409, "A reload is already running.");
+            }
+            live.reload(Main::loadServingMap).exceptionally(e -> {
+                LOG.error("Reload failed; still serving the previous map.", e);
+                return null;
+            });
+            response.status(202);
+            return "Reloading.";
+        }, queryPool);
 
-        System.out.println("Finished server startup! Visit http://localhost:4567/ngordnet_2a.html");
+        // Deltas dropped into -Dngordnet.deltaDir are applied without a restart; see DeltaWatcher.
+        String deltaDir = System.getProperty("ngordnet.deltaDir");
+        if (deltaDir != null) {
+            new DeltaWatcher(live, Path.of(deltaDir)).start();
+        }
+    }
+
+    /**
+     * Returns whether REQUEST may reload the map: it carries TOKEN, if one is configured,
+     * or otherwise comes from this machine and not from a page of another site, which a
+     * browser on this machine would otherwise let post here.
+     */
+    private static boolean mayReload(Request request, String token) {
+        if (token != null) {
+            String given = request.headers("X-Reload-Token");
+            return given != null && MessageDigest.isEqual(given.getBytes(StandardCharsets.UTF_8),
+                    token.getBytes(StandardCharsets.UTF_8));
+        }
+        String origin = request.headers("Origin");
+        if (origin != null && !origin.equals("http://" + request.host())) {
+            return false;
+        }
+        try {
+            return InetAddress.getByName(request.ip()).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns a ShardedNGramMap over the shard servers at SHARDS, URLs separated by commas
+     * in shard order, e.g. http://host1:4567/shard,http://host2:4567/shard. Each shard
+     * has -Dngordnet.shardTimeoutMillis (5000 by default) to answer.
+     */
+    private static NGramQueries loadShardedMap(String shards) {
+        Duration timeout = Duration.ofMillis(Long.getLong("ngordnet.shardTimeoutMillis",
+                ShardedNGramMap.DEFAULT_TIMEOUT.toMillis()));
+        List<ShardedNGramMap.Shard> clients = new ArrayList<>();
+        for (String url : shards.split(",")) {
+            clients.add(ShardedNGramMap.http(URI.create(url.trim()), timeout));
+        }
+        return new ShardedNGramMap(clients, timeout);
+    }
+
+    /**
+     * Loads the NGramMap and sets it up for serving.
+     *
+     * With -Dngordnet.shard=I/N, this server is shard I of N, and loads only the words
+     * NGramMap.shardOf gives to shard I. With -Dngordnet.ngramFiles=FILE,FILE,..., the
+     * 2- and 3-grams in those files are loaded along with the words, and can be queried
+     * like them. With -Dngordnet.compress=true, the words' histories are kept
+     * compressed; see StorageMode.
+     */
+    private static NGramMap loadServingMap() {
+        String shard = System.getProperty("ngordnet.shard");
+        if (shard != null) {
+            String[] parts = shard.split("/");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("ngordnet.shard must look like 0/4, not " + shard + ".");
+            }
+            return NGramMap.shard(Q_WORDS_FILE, TOTAL_COUNTS_FILE,
+                    Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()))
+                    .withWeightMode(WeightMode.PRECOMPUTED);
+        }
+        String ngramFiles = System.getProperty("ngordnet.ngramFiles");
+        if (ngramFiles != null) {
+            // Phrases such as "quite a" are queried like words, alongside the q-words.
+            List<String> files = new ArrayList<>(List.of(Q_WORDS_FILE));
+            for (String file : ngramFiles.split(",")) {
+                files.add(file.trim());
+            }
+            return NGramMap.ofNGrams(files, TOTAL_COUNTS_FILE).withWeightMode(WeightMode.PRECOMPUTED);
+        }
+        if (Boolean.getBoolean("ngordnet.compress")) {
+            // Precomputed weights would take back more memory than compression saves.
+            return loadNGramMap().withStorageMode(StorageMode.COMPRESSED);
+        }
+        // The q-words file is small enough to spend 8 bytes per point on faster weight queries.
+        return loadNGramMap().withWeightMode(WeightMode.PRECOMPUTED);
+    }
+
+    /**
+     * Loads the NGramMap from its snapshot if the snapshot is newer than both data files.
+     * Otherwise parses the data files and writes a fresh snapshot for the next startup.
+     */
+    private static NGramMap loadNGramMap() {
+        File snapshot = new File(Q_WORDS_SNAPSHOT_FILE);
+        if (snapshot.lastModified() > new File(Q_WORDS_FILE).lastModified()
+                && snapshot.lastModified() > new File(TOTAL_COUNTS_FILE).lastModified()) {
+            try {
+                return new NGramMap(Q_WORDS_SNAPSHOT_FILE);
+            } catch (IllegalArgumentException e) {
+                // Corrupt, or written by an older version; rebuild it below.
+                LOG.warn("Snapshot {} is unusable; rebuilding it", Q_WORDS_SNAPSHOT_FILE, e);
+            }
+        }
+        NGramMap ngm = new NGramMap(Q_WORDS_FILE, TOTAL_COUNTS_FILE);
+        ngm.export(Q_WORDS_SNAPSHOT_FILE);
+        return ngm;
     }
 }
@@ -0,0 +1,43 @@
+package main;
+
+import browser.Metrics;
+import com.google.gson.JsonParseException;
+import ngrams.NGramMap;
+import ngrams.ShardedNGramMap;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import java.util.function.Supplier;
+
+import static spark.Spark.halt;
+
+/**
+ * Answers the POST requests a ShardedNGramMap sends to the shards it is spread
+ * over, from this server's map, which holds one shard's words. See
+ * ShardedNGramMap.answer for the requests and answers.
+ */
+public class ShardHandler implements Route {
+
+    Supplier<NGramMap> maps;
+
+    /** Creates a handler that answers from the NGramMap MAPS returns at the time. */
+    public ShardHandler(Supplier<NGramMap> maps) {
+        this.maps = maps;
+    }
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        long start = System.nanoTime();
+        String answer;
+        try {
+            answer = ShardedNGramMap.answer(maps.get(), request.body());
+        } catch (JsonParseException | IllegalArgumentException e) {
+            halt(400, "Bad shard request: " + e.getMessage());
+            return null;
+        }
+        Metrics.recordPhase("lookup", start);
+        response.type("application/json; charset=utf-8");
+        return answer;
+    }
+}
@@ -0,0 +1,40 @@
+package main;
+
+import browser.JsonOutput;
+import browser.NgordnetQuery;
+import browser.NgordnetStreamingHandler;
+import ngrams.NGramMap;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Returns the k words whose weight histories between startYear and endYear
+ * rose and fell most like that of the first word of the query, best first, as
+ *
+ *   [{"word":"railway","score":0.97}, ...]
+ *
+ * where the score is the Pearson correlation; see NGramMap.similarWords.
+ */
+public class SimilarHandler extends NgordnetStreamingHandler {
+
+    Supplier<NGramMap> maps;
+
+    public SimilarHandler(NGramMap map) {
+        this(() -> map);
+    }
+
+    /** Creates a handler that answers each query from the NGramMap MAPS returns at the time. */
+    public SimilarHandler(Supplier<NGramMap> maps) {
+        this.maps = maps;
+    }
+
+    @Override
+    public void handle(NgordnetQuery q, JsonOutput out) throws IOException {
+        String word = q.words().isEmpty() ? "" : q.words().get(0);
+        int k = TopKHandler.k(q);
+        TopKHandler.writeRanked(word.isEmpty() ? List.of()
+                : maps.get().similarWords(word, q.startYear(), q.endYear(), k), out);
+    }
+}
@@ -0,0 +1,81 @@
+package main;
+
+import browser.JsonOutput;
+import browser.NgordnetQuery;
+import browser.NgordnetStreamingHandler;
+import ngrams.NGramQueries;
+import ngrams.RankedWord;
+import ngrams.Ranking;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static spark.Spark.halt;
+
+/**
+ * Returns the k words with the highest score between startYear and endYear,
+ * best first, as
+ *
+ *   [{"word":"queen","score":0.0123}, ...]
+ *
+ * The words of the query, if any, are patterns such as "q*" that limit which
+ * words are ranked; with no words, the whole vocabulary is ranked.
+ */
+public class TopKHandler extends NgordnetStreamingHandler {
+
+    /** How many words to return when the query does not give k. */
+    public static final int DEFAULT_K = 10;
+
+    /** The largest k a query may ask for. */
+    public static final int MAX_K = 10_000;
+
+    Supplier<? extends NGramQueries> maps;
+    private final Ranking ranking;
+
+    public TopKHandler(NGramQueries map, Ranking ranking) {
+        this(() -> map, ranking);
+    }
+
+    /**
+     * Creates a handler that ranks words by RANKING in the map MAPS returns at the
+     * time of each query.
+     */
+    public TopKHandler(Supplier<? extends NGramQueries> maps, Ranking ranking) {
+        this.maps = maps;
+        this.ranking = ranking;
+    }
+
+    @Override
+    public void handle(NgordnetQuery q, JsonOutput out) throws IOException {
+        List<String> patterns = new ArrayList<>();
+        for (String word : q.words()) {
+            if (!word.isEmpty()) {
+                patterns.add(word);
+            }
+        }
+        writeRanked(maps.get().topK(patterns, k(q), q.startYear(), q.endYear(), ranking), out);
+    }
+
+    /** Returns the k of Q, or DEFAULT_K if it gives none, halting with a 400 if it is above MAX_K. */
+    static int k(NgordnetQuery q) {
+        if (q.k() > MAX_K) {
+            halt(400, "k must be at most " + MAX_K + ", not " + q.k() + ".");
+        }
+        return q.k() > 0 ? q.k() : DEFAULT_K;
+    }
+
+    /** Writes RANKED as a JSON array of {"word":...,"score":...} objects. */
+    static void writeRanked(List<RankedWord> ranked, JsonOutput out) throws IOException {
+        out.raw('[');
+        for (int i = 0; i < ranked.size(); i += 1) {
+            if (i > 0) {
+                out.raw(',');
+            }
+            out.raw("{\"word\":").string(ranked.get(i).word())
+                    .raw(",\"score\":").number(ranked.get(i).score()).raw('}');
+        }
+        out.raw(']');
+    }
+}
@@ -0,0 +1,16 @@
+package ngrams;
+
+import java.util.List;
+
+/**
+ * One (words, startYear, endYear) tuple of a batch evaluated by
+ * NGramMap.batchWeightHistory or NGramMap.batchSummedWeightHistory.
+ */
+public record BatchQuery(List<String> words, int startYear, int endYear) {
+    public BatchQuery {
+        if (startYear > endYear) {
+            throw new IllegalArgumentException("Start year cannot be after end year.");
+        }
+        words = List.copyOf(words);
+    }
+}
@@ -0,0 +1,274 @@
+package ngrams;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses a words file (word TAB year TAB count ...) in parallel.
+ *
+ * The file is memory-mapped and cut into chunks that each start at the
+ * beginning of a line. Every chunk is parsed into its own ColumnStore.Builder
+ * on the common fork-join pool, and the partial builders are merged as the
+ * tasks join. Fields are parsed straight from the mapped bytes; no line
+ * Strings are created and no regular expressions are involved.
+ */
+final class ChunkedLoader {
+
+    private static final int MIN_CHUNK = 1 << 20;
+    private static final int MAX_CHUNK = 1 << 26;
+
+    private ChunkedLoader() {
+    }
+
+    /**
+     * Feeds every row of WORDSFILENAME to SINK in file order, one chunk at a time on the
+     * calling thread, and returns the number of lines read. Only one chunk is mapped at
+     * a time, so this works for files of any size.
+     */
+    static long stream(String wordsFilename, RowSink sink) {
+        try (FileChannel channel = FileChannel.open(Paths.get(wordsFilename), StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel);
+            long lines = 0;
+            for (int i = 0; i + 1 < bounds.length; i += 1) {
+                if (bounds[i + 1] > bounds[i]) {
+                    lines += parse(channel.map(FileChannel.MapMode.READ_ONLY, bounds[i],
+                            bounds[i + 1] - bounds[i]), bounds[i], sink);
+                }
+            }
+            return lines;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + wordsFilename, e);
+        }
+    }
+
+    /** Reads every row of WORDSFILENAME into BUILDER and returns the number of lines read. */
+    static long load(String wordsFilename, ColumnStore.Builder builder) {
+        try (FileChannel channel = FileChannel.open(Paths.get(wordsFilename), StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel);
+            ParseTask task = new ParseTask(channel, bounds, 0, bounds.length - 1);
+            Partial result = ForkJoinPool.commonPool().invoke(task);
+            builder.addAll(result.builder);
+            return result.lines;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + wordsFilename, e);
+        }
+    }
+
+    /**
+     * Returns the chunk boundaries of CHANNEL: chunk i spans bytes bounds[i]
+     * (inclusive) to bounds[i + 1] (exclusive), and every bounds[i] is either 0
+     * or the byte after a newline.
+     */
+    private static long[] chunkBounds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        long target = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size / (4L * parallelism)));
+
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long pos = target;
+        while (pos < size) {
+            long newline = -1;
+            while (newline < 0 && pos < size) {
+                probe.clear();
+                int n = channel.read(probe, pos);
+                for (int i = 0; i < n; i += 1) {
+                    if (probe.get(i) == '\n') {
+                        newline = pos + i;
+                        break;
+                    }
+                }
+                pos += Math.max(n, 0);
+            }
+            if (newline < 0 || newline + 1 >= size) {
+                break;
+            }
+            bounds.add(newline + 1);
+            pos = newline + 1 + target;
+        }
+        bounds.add(size);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /** The rows parsed from a range of chunks. */
+    private static final class Partial {
+        final ColumnStore.Builder builder;
+        final long lines;
+
+        Partial(ColumnStore.Builder builder, long lines) {
+            this.builder = builder;
+            this.lines = lines;
+        }
+    }
+
+    private static final class ParseTask extends RecursiveTask<Partial> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int lo;
+        private final int hi;
+
+        /** Parses chunks LO (inclusive) to HI (exclusive). */
+        ParseTask(FileChannel channel, long[] bounds, int lo, int hi) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (hi - lo == 1) {
+                return parseChunk();
+            }
+            int mid = (lo + hi) >>> 1;
+            ParseTask left = new ParseTask(channel, bounds, lo, mid);
+            ParseTask right = new ParseTask(channel, bounds, mid, hi);
+            right.fork();
+            Partial l = left.compute();
+            Partial r = right.join();
+            l.builder.addAll(r.builder);
+            return new Partial(l.builder, l.lines + r.lines);
+        }
+
+        private Partial parseChunk() {
+            long start = bounds[lo];
+            long length = bounds[hi] - start;
+            ColumnStore.Builder builder = new ColumnStore.Builder();
+            if (length == 0) {
+                return new Partial(builder, 0);
+            }
+            MappedByteBuffer buf;
+            try {
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new Partial(builder, parse(buf, start, builder));
+        }
+    }
+
+    /**
+     * Parses every line of BUF into SINK and returns the number of lines. OFFSET is the
+     * position in the file of BUF's first byte. A bad line is reported by its byte offset
+     * in the file, which unlike its line number is known without parsing earlier chunks.
+     */
+    static long parse(ByteBuffer buf, long offset, RowSink sink) {
+        byte[] scratch = new byte[64];
+        byte[] lastBytes = new byte[0];
+        String lastWord = null;
+        long lines = 0;
+        int limit = buf.limit();
+        int first = buf.position();
+        int i = first;
+
+        while (i < limit) {
+            // Field 1: the word, up to the first tab.
+            int wordStart = i;
+            long at = offset + (wordStart - first);
+            while (i < limit && buf.get(i) != '\t' && buf.get(i) != '\n') {
+                i += 1;
+            }
+            int wordLength = i - wordStart;
+            if (i >= limit || buf.get(i) == '\n') {
+                // Only blank lines may lack a tab.
+                if (wordLength > 1 || (wordLength == 1 && buf.get(wordStart) != '\r')) {
+                    throw new IllegalArgumentException("The line at byte " + at + " has no year field.");
+                }
+                i += 1;
+                continue;
+            }
+            if (scratch.length < wordLength) {
+                scratch = new byte[Math.max(wordLength, scratch.length * 2)];
+            }
+            buf.get(wordStart, scratch, 0, wordLength);
+            // Rows of the same word are usually adjacent, so reuse the previous String.
+            if (lastWord == null || !Arrays.equals(scratch, 0, wordLength, lastBytes, 0, lastBytes.length)) {
+                lastBytes = Arrays.copyOf(scratch, wordLength);
+                lastWord = new String(lastBytes, StandardCharsets.UTF_8);
+            }
+            i += 1;
+
+            // Field 2: the year.
+            int year = 0;
+            boolean negative = false;
+            if (i < limit && buf.get(i) == '-') {
+                negative = true;
+                i += 1;
+            }
+            int yearStart = i;
+            while (i < limit) {
+                byte b = buf.get(i);
+                if (b < '0' || b > '9') {
+                    break;
+                }
+                if (year > (Integer.MAX_VALUE - (b - '0')) / 10) {
+                    throw new IllegalArgumentException("Bad year field for " + lastWord + " on the line at byte " + at);
+                }
+                year = year * 10 + (b - '0');
+                i += 1;
+            }
+            if (i == yearStart || i >= limit || buf.get(i) != '\t') {
+                throw new IllegalArgumentException("Bad year field for " + lastWord + " on the line at byte " + at);
+            }
+            i += 1;
+
+            // Field 3: the count. Integral counts are parsed by hand; anything else
+            // (decimals, exponents) falls back to Double.parseDouble.
+            int countStart = i;
+            long whole = 0;
+            boolean integral = true;
+            while (i < limit) {
+                byte b = buf.get(i);
+                if (b == '\t' || b == '\n' || b == '\r') {
+                    break;
+                }
+                if (b < '0' || b > '9' || i - countStart >= 18) {
+                    integral = false;
+                } else {
+                    whole = whole * 10 + (b - '0');
+                }
+                i += 1;
+            }
+            if (i == countStart) {
+                throw new IllegalArgumentException("Bad count field for " + lastWord + " on the line at byte " + at);
+            }
+            double count;
+            if (integral) {
+                count = whole;
+            } else {
+                byte[] field = new byte[i - countStart];
+                buf.get(countStart, field, 0, field.length);
+                count = Double.parseDouble(new String(field, StandardCharsets.US_ASCII));
+            }
+
+            // Skip any remaining fields.
+            while (i < limit && buf.get(i) != '\n') {
+                i += 1;
+            }
+            i += 1;
+
+            sink.add(lastWord, negative ? -year : year, count);
+            lines += 1;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,224 @@
+package ngrams;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Column-oriented, on-heap storage for the word histories of an NGramMap.
+ *
+ * Rather than one TreeMap per word, every (year, count) pair lives in two
+ * flat primitive arrays laid out in CSR fashion: the points of word ID i are
+ * found at indices OFFSETS[i] (inclusive) to OFFSETS[i + 1] (exclusive) of
+ * YEARS and COUNTS, sorted by year. A point therefore costs 18 bytes (year,
+ * count and running total) instead of a tree node plus a boxed Integer and a
+ * boxed Double. Words are kept in a WordTable rather than as Strings, and
+ * n-grams in a PhraseTable.
+ */
+final class ColumnStore extends SeriesStore {
+
+    private final Lexicon words;
+    private final int[] offsets;
+    private final short[] years;
+    private final double[] counts;
+    private final double[] cumulative;
+
+    ColumnStore(Lexicon words, int[] offsets, short[] years, double[] counts) {
+        this.words = words;
+        this.offsets = offsets;
+        this.years = years;
+        this.counts = counts;
+        this.cumulative = new double[counts.length];
+        for (int i = 0; i < words.size(); i += 1) {
+            double sum = 0;
+            for (int p = offsets[i]; p < offsets[i + 1]; p += 1) {
+                sum += counts[p];
+                cumulative[p] = sum;
+            }
+        }
+    }
+
+    Lexicon lexicon() {
+        return words;
+    }
+
+    @Override
+    int size() {
+        return words.size();
+    }
+
+    @Override
+    int find(String word) {
+        return words.find(word);
+    }
+
+    @Override
+    String word(int id) {
+        return words.word(id);
+    }
+
+    @Override
+    int compareWord(int id, byte[] key, int limit) {
+        return words.compare(id, key, limit);
+    }
+
+    @Override
+    long start(int id) {
+        return offsets[id];
+    }
+
+    @Override
+    long end(int id) {
+        return offsets[id + 1];
+    }
+
+    @Override
+    int year(long point) {
+        return years[(int) point];
+    }
+
+    @Override
+    double count(long point) {
+        return counts[(int) point];
+    }
+
+    @Override
+    double cumulative(long point) {
+        return cumulative[(int) point];
+    }
+
+    @Override
+    long points() {
+        return counts.length;
+    }
+
+    /**
+     * Accumulates (word, year, count) rows in any order and packs them into a
+     * ColumnStore. If the same word and year are added twice, the last count wins.
+     */
+    static final class Builder implements RowSink {
+        private final Map<String, Run> runs = new HashMap<>();
+        private int points;
+
+        /** Rows of one word are usually adjacent, so remember the last run used. */
+        private String lastWord;
+        private Run lastRun;
+
+        @Override
+        public void add(String word, int year, double count) {
+            if (year < Short.MIN_VALUE || year > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Year " + year + " is out of range for word " + word);
+            }
+            Run run;
+            if (word.equals(lastWord)) {
+                run = lastRun;
+            } else {
+                run = runs.get(word);
+                if (run == null) {
+                    run = new Run();
+                    runs.put(word, run);
+                }
+                lastWord = word;
+                lastRun = run;
+            }
+            run.add((short) year, count);
+            points += 1;
+        }
+
+        /** Moves every row of OTHER into this builder. */
+        void addAll(Builder other) {
+            for (Map.Entry<String, Run> e : other.runs.entrySet()) {
+                Run run = runs.get(e.getKey());
+                if (run == null) {
+                    runs.put(e.getKey(), e.getValue());
+                } else {
+                    Run o = e.getValue();
+                    for (int i = 0; i < o.size; i += 1) {
+                        run.add(o.years[i], o.counts[i]);
+                    }
+                }
+            }
+            points += other.points;
+        }
+
+        ColumnStore build() {
+            String[] words = runs.keySet().toArray(new String[0]);
+            Arrays.sort(words, SeriesStore::compareCodePoints);
+
+            int[] offsets = new int[words.length + 1];
+            short[] years = new short[points];
+            double[] counts = new double[points];
+            int n = 0;
+            for (int i = 0; i < words.length; i += 1) {
+                offsets[i] = n;
+                n = runs.get(words[i]).copyTo(years, counts, n);
+            }
+            offsets[words.length] = n;
+            if (n < points) {
+                years = Arrays.copyOf(years, n);
+                counts = Arrays.copyOf(counts, n);
+            }
+            return new ColumnStore(WordTable.of(words), offsets, years, counts);
+        }
+    }
+
+    /** A growable, per-word list of points used while loading. */
+    static final class Run {
+        private short[] years = new short[8];
+        private double[] counts = new double[8];
+        private int size;
+        private boolean sorted = true;
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+            sorted = true;
+        }
+
+        void add(short year, double count) {
+            if (size == years.length) {
+                years = Arrays.copyOf(years, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            if (size > 0 && years[size - 1] >= year) {
+                sorted = false;
+            }
+            years[size] = year;
+            counts[size] = count;
+            size += 1;
+        }
+
+        /**
+         * Copies this run into YS and CS starting at index AT, sorted by year and
+         * with duplicate years collapsed. Returns the index after the last copied point.
+         */
+        int copyTo(short[] ys, double[] cs, int at) {
+            if (sorted) {
+                System.arraycopy(years, 0, ys, at, size);
+                System.arraycopy(counts, 0, cs, at, size);
+                return at + size;
+            }
+            // Stable sort of indices by year, so that the last duplicate is the one kept.
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i += 1) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Short.compare(years[a], years[b]));
+            int n = at;
+            for (int k = 0; k < size; k += 1) {
+                int i = order[k];
+                if (n > at && ys[n - 1] == years[i]) {
+                    cs[n - 1] = counts[i];
+                } else {
+                    ys[n] = years[i];
+                    cs[n] = counts[i];
+                    n += 1;
+                }
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package ngrams;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A SeriesStore that keeps the points of each word as one block of bits
+ * written by SeriesCodec, rather than as columns of fixed-width years, counts
+ * and running totals. Word histories are mostly runs of consecutive years with
+ * slowly changing counts, which that encoding shrinks to a few bytes per point
+ * instead of 18.
+ *
+ * Points are decoded only when a query touches their word. Queries that walk a
+ * word from start to end, such as summed histories, stream through its block
+ * with a SeriesCodec.Decoder. Reads of single points decode the whole word,
+ * running totals included, into a buffer kept per thread, so that the binary
+ * searches and loops that follow over the same word cost no more decoding.
+ */
+final class CompressedStore extends SeriesStore {
+
+    private final Lexicon words;
+    private final int[] offsets;
+    private final int[] blocks;
+    private final ByteBuffer data;
+
+    /** The last word decoded on each thread. */
+    private final ThreadLocal<Block> decoded = ThreadLocal.withInitial(Block::new);
+
+    /** The decoded points of one word. */
+    private static final class Block {
+        long start;
+        long end;
+        short[] years = new short[0];
+        double[] counts = new double[0];
+        double[] cumulative = new double[0];
+    }
+
+    private CompressedStore(Lexicon words, int[] offsets, int[] blocks, byte[] data) {
+        this.words = words;
+        this.offsets = offsets;
+        this.blocks = blocks;
+        this.data = ByteBuffer.wrap(data);
+    }
+
+    /** Returns a CompressedStore holding the same words and points as SOURCE. */
+    static CompressedStore of(SeriesStore source) {
+        if (source.points() > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many points (" + source.points()
+                    + ") for a compressed store.");
+        }
+        Lexicon words;
+        if (source instanceof ColumnStore columns) {
+            words = columns.lexicon();
+        } else {
+            String[] all = new String[source.size()];
+            for (int id = 0; id < all.length; id += 1) {
+                all[id] = source.word(id);
+            }
+            words = WordTable.of(all);
+        }
+
+        int[] offsets = new int[source.size() + 1];
+        int[] blocks = new int[source.size()];
+        SeriesCodec.Encoder encoder = new SeriesCodec.Encoder();
+        short[] years = new short[0];
+        double[] counts = new double[0];
+        int at = 0;
+        for (int id = 0; id < source.size(); id += 1) {
+            int n = (int) (source.end(id) - source.start(id));
+            if (years.length < n) {
+                years = new short[n];
+                counts = new double[n];
+            }
+            for (int i = 0; i < n; i += 1) {
+                years[i] = (short) source.year(source.start(id) + i);
+                counts[i] = source.count(source.start(id) + i);
+            }
+            offsets[id] = at;
+            blocks[id] = encoder.position();
+            encoder.encode(years, counts, 0, n);
+            at += n;
+        }
+        offsets[source.size()] = at;
+        return new CompressedStore(words, offsets, blocks, encoder.toByteArray());
+    }
+
+    /** Returns the bytes of heap held by the points of this store. */
+    long pointBytes() {
+        return data.capacity() + 4L * (offsets.length + blocks.length);
+    }
+
+    /** Returns a ColumnStore of the same words and points, decoded. */
+    ColumnStore decompress() {
+        int n = offsets[offsets.length - 1];
+        short[] years = new short[n];
+        double[] counts = new double[n];
+        for (int id = 0; id < words.size(); id += 1) {
+            SeriesCodec.Decoder d = decoder(id);
+            for (int p = offsets[id]; d.next(); p += 1) {
+                years[p] = (short) d.year();
+                counts[p] = d.count();
+            }
+        }
+        return new ColumnStore(words, offsets.clone(), years, counts);
+    }
+
+    @Override
+    int size() {
+        return words.size();
+    }
+
+    @Override
+    int find(String word) {
+        return words.find(word);
+    }
+
+    @Override
+    String word(int id) {
+        return words.word(id);
+    }
+
+    @Override
+    int compareWord(int id, byte[] key, int limit) {
+        return words.compare(id, key, limit);
+    }
+
+    @Override
+    long start(int id) {
+        return offsets[id];
+    }
+
+    @Override
+    long end(int id) {
+        return offsets[id + 1];
+    }
+
+    @Override
+    int year(long point) {
+        Block b = block(point);
+        return b.years[(int) (point - b.start)];
+    }
+
+    @Override
+    double count(long point) {
+        Block b = block(point);
+        return b.counts[(int) (point - b.start)];
+    }
+
+    @Override
+    double cumulative(long point) {
+        Block b = block(point);
+        return b.cumulative[(int) (point - b.start)];
+    }
+
+    @Override
+    long points() {
+        return offsets[offsets.length - 1];
+    }
+
+    /** Returns a decoder of the points of word ID, from its first. */
+    SeriesCodec.Decoder decoder(int id) {
+        return new SeriesCodec.Decoder(data, blocks[id], offsets[id + 1] - offsets[id]);
+    }
+
+    /** Streams through the block of word ID, decoding no further than the last point in range. */
+    @Override
+    void addCounts(int id, int startYear, int endYear, DenseTimeSeries sum) {
+        SeriesCodec.Decoder d = decoder(id);
+        while (d.next() && d.year() <= endYear) {
+            if (d.year() >= startYear) {
+                sum.add(d.year(), d.count());
+            }
+        }
+    }
+
+    /** Returns this thread's decoded block holding POINT, decoding its word if it is not the last one. */
+    private Block block(long point) {
+        Block b = decoded.get();
+        if (point < b.start || point >= b.end) {
+            decode(owner((int) point), b);
+        }
+        return b;
+    }
+
+    /** Returns the word whose points include POINT. */
+    private int owner(int point) {
+        // The last word starting at or before POINT; words without points share its start.
+        int i = Arrays.binarySearch(offsets, point);
+        if (i < 0) {
+            return -i - 2;
+        }
+        while (offsets[i + 1] == point) {
+            i += 1;
+        }
+        return i;
+    }
+
+    private void decode(int id, Block b) {
+        int n = offsets[id + 1] - offsets[id];
+        if (b.years.length < n) {
+            int capacity = Math.max(n, 2 * b.years.length);
+            b.years = new short[capacity];
+            b.counts = new double[capacity];
+            b.cumulative = new double[capacity];
+        }
+        SeriesCodec.Decoder d = decoder(id);
+        double sum = 0;
+        for (int i = 0; d.next(); i += 1) {
+            b.years[i] = (short) d.year();
+            b.counts[i] = d.count();
+            sum += b.counts[i];
+            b.cumulative[i] = sum;
+        }
+        b.start = offsets[id];
+        b.end = offsets[id + 1];
+    }
+}
@@ -0,0 +1,107 @@
+package ngrams;
+
+import java.util.Arrays;
+import java.util.function.LongToDoubleFunction;
+
+import static ngrams.TimeSeries.MAX_YEAR;
+import static ngrams.TimeSeries.MIN_YEAR;
+
+/**
+ * A coarse copy of the weights of every word, summed by decade into a dense
+ * float[], used to pick candidates for a similarity search before the exact
+ * yearly histories are compared.
+ *
+ * A word's decades lie next to each other in the array, so comparing two words
+ * over a range of decades is a tight loop over a few floats. Scoring the whole
+ * vocabulary this way reads about a tenth of the data that comparing the
+ * yearly histories would.
+ */
+final class DecadeIndex {
+
+    static final int DECADES = (MAX_YEAR - MIN_YEAR) / 10 + 1;
+
+    /** sums[id * DECADES + d] is the summed weight of word ID in decade D, counting from MIN_YEAR. */
+    private final float[] sums;
+    private final int size;
+
+    private DecadeIndex(float[] sums, int size) {
+        this.sums = sums;
+        this.size = size;
+    }
+
+    /**
+     * Builds the index of every word of STORE, taking the weight of each point from
+     * WEIGHT. Points whose weight is NaN are left out.
+     */
+    static DecadeIndex of(SeriesStore store, LongToDoubleFunction weight) {
+        int n = store.size();
+        if ((long) n * DECADES > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many words (" + n + ") for a decade index.");
+        }
+        float[] sums = new float[n * DECADES];
+        for (int id = 0; id < n; id += 1) {
+            double[] decades = new double[DECADES];
+            for (long p = store.start(id); p < store.end(id); p += 1) {
+                int year = store.year(p);
+                double w = weight.applyAsDouble(p);
+                if (year >= MIN_YEAR && year <= MAX_YEAR && !Double.isNaN(w)) {
+                    decades[(year - MIN_YEAR) / 10] += w;
+                }
+            }
+            for (int d = 0; d < DECADES; d += 1) {
+                sums[id * DECADES + d] = (float) decades[d];
+            }
+        }
+        return new DecadeIndex(sums, n);
+    }
+
+    /**
+     * Returns up to LIMIT words, other than QUERYID, whose decade sums correlate best with
+     * those of QUERYID over the decades from FROM to TO, in no particular order. Only
+     * positively correlated words are returned.
+     */
+    int[] candidates(int queryId, int from, int to, int limit) {
+        int d0 = (from - MIN_YEAR) / 10;
+        int length = (to - MIN_YEAR) / 10 - d0 + 1;
+
+        // Centre the query once, so that each word costs one pass over its decades.
+        float[] q = new float[length];
+        double mean = 0;
+        for (int d = 0; d < length; d += 1) {
+            mean += sums[queryId * DECADES + d0 + d];
+        }
+        mean /= length;
+        double qNorm = 0;
+        for (int d = 0; d < length; d += 1) {
+            q[d] = (float) (sums[queryId * DECADES + d0 + d] - mean);
+            qNorm += q[d] * q[d];
+        }
+        if (qNorm == 0) {
+            return new int[0];
+        }
+
+        TopK best = new TopK(limit);
+        for (int id = 0; id < size; id += 1) {
+            if (id == queryId) {
+                continue;
+            }
+            int base = id * DECADES + d0;
+            float sx = 0;
+            float sxx = 0;
+            float sxq = 0;
+            for (int d = 0; d < length; d += 1) {
+                float x = sums[base + d];
+                sx += x;
+                sxx += x * x;
+                sxq += x * q[d];
+            }
+            double variance = sxx - (double) sx * sx / length;
+            if (variance > 0 && sxq > 0) {
+                best.offer(id, sxq / Math.sqrt(variance));
+            }
+        }
+        int[] ids = new int[limit];
+        int found = best.drain(ids, new double[limit]);
+        return Arrays.copyOf(ids, found);
+    }
+}
@@ -0,0 +1,117 @@
+package ngrams;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a directory for delta files and applies them to a LiveNGramMap.
+ *
+ * A delta called NAME consists of NAME.words.csv, in the format of a words
+ * file, and optionally NAME.counts.csv, in the format of a counts file. Since
+ * a file may be seen while it is still being written, a delta is only applied
+ * once NAME.ready appears next to it. The marker is then renamed to
+ * NAME.applied, or to NAME.failed if the delta could not be read. Deltas that
+ * are ready at the same time are applied in order of NAME.
+ */
+public class DeltaWatcher implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeltaWatcher.class);
+    private static final String READY = ".ready";
+
+    private final LiveNGramMap map;
+    private final Path directory;
+    private final WatchService watcher;
+    private final Thread thread;
+
+    /** Creates a watcher of DIRECTORY, which does nothing until start is called. */
+    public DeltaWatcher(LiveNGramMap map, Path directory) {
+        this.map = map;
+        this.directory = directory;
+        try {
+            watcher = directory.getFileSystem().newWatchService();
+            // Files moved into the directory are reported as created too.
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        thread = new Thread(this::watch, "delta-watcher");
+        thread.setDaemon(true);
+    }
+
+    /** Applies any deltas that are already ready, then watches for new ones in the background. */
+    public void start() {
+        thread.start();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                applyReady();
+                WatchKey key = watcher.take();
+                key.pollEvents();
+                if (!key.reset()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed; stop watching.
+        }
+    }
+
+    /** Applies every delta in the directory that is ready, and returns how many were applied. */
+    public synchronized int applyReady() {
+        List<Path> markers = new ArrayList<>();
+        try (DirectoryStream<Path> ready = Files.newDirectoryStream(directory, "*" + READY)) {
+            ready.forEach(markers::add);
+        } catch (IOException e) {
+            LOG.warn("Could not list {}", directory, e);
+            return 0;
+        }
+        Collections.sort(markers);
+
+        int applied = 0;
+        for (Path marker : markers) {
+            String file = marker.getFileName().toString();
+            String name = file.substring(0, file.length() - READY.length());
+            Path words = directory.resolve(name + ".words.csv");
+            Path counts = directory.resolve(name + ".counts.csv");
+            String outcome = ".applied";
+            long startTime = System.nanoTime();
+            try {
+                map.applyDelta(words.toString(), Files.exists(counts) ? counts.toString() : null);
+                applied += 1;
+                LOG.info("Applied delta {} in {} ms", name, (System.nanoTime() - startTime) / 1_000_000);
+            } catch (RuntimeException e) {
+                outcome = ".failed";
+                LOG.warn("Could not apply delta {}", name, e);
+            }
+            try {
+                Files.move(marker, directory.resolve(name + outcome), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                LOG.warn("Could not rename {}", marker, e);
+            }
+        }
+        return applied;
+    }
+
+    /** Stops watching. A delta being applied is still finished. */
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+}
@@ -0,0 +1,211 @@
+package ngrams;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static ngrams.TimeSeries.MAX_YEAR;
+import static ngrams.TimeSeries.MIN_YEAR;
+
+/**
+ * A mutable mapping from the years MIN_YEAR to MAX_YEAR to numerical data, kept
+ * in a dense double[] indexed by year - MIN_YEAR plus a bitmask of the years
+ * that hold data. Years without data always hold 0.0 in the array, so sums
+ * can run as plain linear loops over both arrays.
+ *
+ * Unlike TimeSeries, the arithmetic here never boxes and never allocates:
+ * the in-place methods overwrite this series, and the static methods write
+ * their result into a caller-supplied destination, which may be one of the
+ * arguments. A DenseTimeSeries is meant to be reused as a scratch buffer.
+ */
+public class DenseTimeSeries {
+
+    /** Number of years between MIN_YEAR and MAX_YEAR, inclusive. */
+    public static final int LENGTH = MAX_YEAR - MIN_YEAR + 1;
+
+    private static final int WORDS = (LENGTH + 63) / 64;
+
+    private final double[] values = new double[LENGTH];
+    private final long[] present = new long[WORDS];
+
+    /**
+     * Constructs a new empty DenseTimeSeries.
+     */
+    public DenseTimeSeries() {
+    }
+
+    /**
+     * Constructs a DenseTimeSeries holding the same data as TS. Throws an
+     * IllegalArgumentException if TS has a year outside MIN_YEAR to MAX_YEAR.
+     */
+    public DenseTimeSeries(TimeSeries ts) {
+        for (Map.Entry<Integer, Double> e : ts.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    /** Returns a series holding the non-NaN entries of ARRAY, indexed by year - MIN_YEAR. */
+    static DenseTimeSeries fromArray(double[] array) {
+        DenseTimeSeries ts = new DenseTimeSeries();
+        for (int i = 0; i < LENGTH; i += 1) {
+            if (!Double.isNaN(array[i])) {
+                ts.put(MIN_YEAR + i, array[i]);
+            }
+        }
+        return ts;
+    }
+
+    /** Returns this series as an array indexed by year - MIN_YEAR, with NaN for years without data. */
+    double[] toArray() {
+        double[] array = new double[LENGTH];
+        for (int i = 0; i < LENGTH; i += 1) {
+            array[i] = has(i) ? values[i] : Double.NaN;
+        }
+        return array;
+    }
+
+    private static int index(int year) {
+        if (year < MIN_YEAR || year > MAX_YEAR) {
+            throw new IllegalArgumentException("Year " + year + " is outside of "
+                    + MIN_YEAR + "-" + MAX_YEAR + ".");
+        }
+        return year - MIN_YEAR;
+    }
+
+    private boolean has(int i) {
+        return (present[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /** Sets the data for YEAR to VALUE. */
+    public void put(int year, double value) {
+        int i = index(year);
+        values[i] = value;
+        present[i >>> 6] |= 1L << i;
+    }
+
+    /** Adds VALUE to the data for YEAR, treating a year without data as 0. */
+    public void add(int year, double value) {
+        int i = index(year);
+        values[i] += value;
+        present[i >>> 6] |= 1L << i;
+    }
+
+    /** Returns whether YEAR has data. */
+    public boolean contains(int year) {
+        return year >= MIN_YEAR && year <= MAX_YEAR && has(year - MIN_YEAR);
+    }
+
+    /** Returns the data for YEAR, or NaN if YEAR has none. */
+    public double get(int year) {
+        return contains(year) ? values[year - MIN_YEAR] : Double.NaN;
+    }
+
+    /** Returns the number of years with data. */
+    public int size() {
+        int n = 0;
+        for (long bits : present) {
+            n += Long.bitCount(bits);
+        }
+        return n;
+    }
+
+    public boolean isEmpty() {
+        for (long bits : present) {
+            if (bits != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Removes all data, so that this series can be reused. */
+    public void clear() {
+        Arrays.fill(values, 0.0);
+        Arrays.fill(present, 0L);
+    }
+
+    /** Makes this series a copy of TS. */
+    public void copyFrom(DenseTimeSeries ts) {
+        System.arraycopy(ts.values, 0, values, 0, LENGTH);
+        System.arraycopy(ts.present, 0, present, 0, WORDS);
+    }
+
+    /**
+     * Adds TS to this series year by year. A year that only one series has keeps
+     * that series' value, as in TimeSeries.plus.
+     */
+    public void plusInPlace(DenseTimeSeries ts) {
+        plus(this, ts, this);
+    }
+
+    /**
+     * Divides this series by TS year by year. Throws an IllegalArgumentException if
+     * this series has a year that TS is missing; years only in TS are ignored, as in
+     * TimeSeries.dividedBy.
+     */
+    public void dividedByInPlace(DenseTimeSeries ts) {
+        dividedBy(this, ts, this);
+    }
+
+    /** Multiplies every year of this series by FACTOR. */
+    public void timesInPlace(double factor) {
+        times(this, factor, this);
+    }
+
+    /** Writes A + B into DEST, which may be A or B. */
+    public static void plus(DenseTimeSeries a, DenseTimeSeries b, DenseTimeSeries dest) {
+        double[] av = a.values;
+        double[] bv = b.values;
+        double[] dv = dest.values;
+        for (int i = 0; i < LENGTH; i += 1) {
+            dv[i] = av[i] + bv[i];
+        }
+        for (int w = 0; w < WORDS; w += 1) {
+            dest.present[w] = a.present[w] | b.present[w];
+        }
+    }
+
+    /** Writes A / B into DEST, which may be A or B. See dividedByInPlace. */
+    public static void dividedBy(DenseTimeSeries a, DenseTimeSeries b, DenseTimeSeries dest) {
+        for (int w = 0; w < WORDS; w += 1) {
+            if ((a.present[w] & ~b.present[w]) != 0) {
+                throw new IllegalArgumentException("Can't divide by a year that doesn't exist.");
+            }
+        }
+        double[] av = a.values;
+        double[] bv = b.values;
+        double[] dv = dest.values;
+        long[] mask = a.present;
+        for (int i = 0; i < LENGTH; i += 1) {
+            dv[i] = (mask[i >>> 6] & (1L << i)) != 0 ? av[i] / bv[i] : 0.0;
+        }
+        System.arraycopy(mask, 0, dest.present, 0, WORDS);
+    }
+
+    /** Writes A * FACTOR into DEST, which may be A. */
+    public static void times(DenseTimeSeries a, double factor, DenseTimeSeries dest) {
+        double[] av = a.values;
+        double[] dv = dest.values;
+        for (int i = 0; i < LENGTH; i += 1) {
+            dv[i] = av[i] * factor;
+        }
+        System.arraycopy(a.present, 0, dest.present, 0, WORDS);
+    }
+
+    /** Returns the years of this series between STARTYEAR and ENDYEAR as a new TimeSeries. */
+    public TimeSeries toTimeSeries(int startYear, int endYear) {
+        TimeSeries ts = new TimeSeries();
+        int from = Math.max(startYear, MIN_YEAR) - MIN_YEAR;
+        int to = Math.min(endYear, MAX_YEAR) - MIN_YEAR;
+        for (int i = from; i <= to; i += 1) {
+            if (has(i)) {
+                ts.put(MIN_YEAR + i, values[i]);
+            }
+        }
+        return ts;
+    }
+
+    /** Returns this series as a new TimeSeries. */
+    public TimeSeries toTimeSeries() {
+        return toTimeSeries(MIN_YEAR, MAX_YEAR);
+    }
+}
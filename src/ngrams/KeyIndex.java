@@ -0,0 +1,120 @@
+package ngrams;
+
+import java.util.Arrays;
+
+/**
+ * A set of long keys, each with a dense ID from 0 to size() - 1 in the order the
+ * keys were added, kept in an open-addressing hash table with linear probing.
+ *
+ * The keys themselves sit in one long[] indexed by ID, and the table only holds
+ * IDs, so a key costs 8 bytes plus 4 bytes per table slot, with the table kept
+ * between three eighths and three quarters full. There are no entry objects and
+ * no boxed keys.
+ */
+final class KeyIndex {
+
+    /** The table is grown when it is more than three quarters full. */
+    private static final int MAX_LOAD_NUMERATOR = 3;
+    private static final int MAX_LOAD_DENOMINATOR = 4;
+
+    private long[] keys;
+    private int size;
+
+    /** The ID of the key hashed to each slot, plus one, or 0 if the slot is empty. */
+    private int[] slots;
+
+    /** Creates an empty index with room for EXPECTED keys before it grows. */
+    KeyIndex(int expected) {
+        keys = new long[Math.max(expected, 8)];
+        slots = new int[capacityFor(keys.length)];
+    }
+
+    private KeyIndex(long[] keys) {
+        this.keys = keys;
+        this.size = keys.length;
+        rehash(capacityFor(Math.max(keys.length, 8)));
+    }
+
+    /**
+     * Returns an index of KEYS, which must be distinct, where each key's ID is its
+     * position. KEYS is kept, not copied.
+     */
+    static KeyIndex of(long[] keys) {
+        return new KeyIndex(keys);
+    }
+
+    /** Returns the smallest power of two whose table keeps KEYS keys at most three quarters full. */
+    private static int capacityFor(int keys) {
+        long wanted = (long) keys * MAX_LOAD_DENOMINATOR / MAX_LOAD_NUMERATOR + 1;
+        if (wanted > 1 << 30) {
+            throw new IllegalArgumentException("Too many keys (" + keys + ") for a key index.");
+        }
+        return Integer.highestOneBit((int) wanted - 1) << 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Returns the key with the given ID. */
+    long key(int id) {
+        return keys[id];
+    }
+
+    /** Returns the ID of KEY, or -1 if it has not been added. */
+    int find(long key) {
+        int mask = slots.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id < 0 || keys[id] == key) {
+                return id;
+            }
+        }
+    }
+
+    /** Returns the ID of KEY, adding it with the next ID if it is not there yet. */
+    int add(long key) {
+        int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (keys[id] == key) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, (int) Math.min((long) size * 2, Integer.MAX_VALUE - 8));
+        }
+        keys[size] = key;
+        slots[slot] = size + 1;
+        size += 1;
+        if ((long) size * MAX_LOAD_DENOMINATOR > (long) slots.length * MAX_LOAD_NUMERATOR) {
+            rehash(slots.length * 2);
+        }
+        return size - 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] table = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id += 1) {
+            int slot = hash(keys[id]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+        slots = table;
+    }
+
+    /** Mixes every bit of KEY into the low bits, which pick the slot (the MurmurHash3 finalizer). */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
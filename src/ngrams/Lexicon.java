@@ -0,0 +1,28 @@
+package ngrams;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The words of a ColumnStore, with dense IDs from 0 to size() - 1 in code point
+ * order. A WordTable keeps single words; a PhraseTable keeps n-grams as tuples
+ * of word IDs.
+ */
+abstract class Lexicon {
+
+    abstract int size();
+
+    abstract String word(int id);
+
+    /** Returns the ID of WORD, or -1 if there is none. */
+    abstract int find(String word);
+
+    /**
+     * Compares word ID, cut to its first LIMIT bytes of UTF-8, with KEY as unsigned byte
+     * strings. Lexicons that keep words encoded should override this to avoid decoding them.
+     */
+    int compare(int id, byte[] key, int limit) {
+        byte[] word = word(id).getBytes(StandardCharsets.UTF_8);
+        return Arrays.compareUnsigned(word, 0, Math.min(word.length, limit), key, 0, key.length);
+    }
+}
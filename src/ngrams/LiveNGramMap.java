@@ -0,0 +1,108 @@
+package ngrams;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The current NGramMap of a running server, which can be brought up to date
+ * while queries are being answered.
+ *
+ * An NGramMap is never changed once built. Updating one builds a new map,
+ * which shares everything the update did not touch, and then publishes it
+ * with a single reference swap. A query that calls get() once and uses that
+ * map throughout sees one consistent epoch of the data, however many updates
+ * happen meanwhile, and reading never takes a lock.
+ */
+public class LiveNGramMap implements Supplier<NGramMap> {
+
+    private final AtomicReference<NGramMap> current;
+    private final List<Consumer<NGramMap>> listeners = new CopyOnWriteArrayList<>();
+
+    /** Runs reloads one at a time, off the threads that answer queries. */
+    private final ExecutorService reloader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ngram-reload");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** The reload being built, if any; guarded by RELOADLOCK rather than this, which deltas hold. */
+    private final Object reloadLock = new Object();
+    private CompletableFuture<NGramMap> reloading;
+
+    public LiveNGramMap(NGramMap initial) {
+        current = new AtomicReference<>(initial);
+    }
+
+    /** Returns the current NGramMap. */
+    @Override
+    public NGramMap get() {
+        return current.get();
+    }
+
+    /**
+     * Calls LISTENER with the new NGramMap after every update, on the updating thread,
+     * e.g. to drop results cached from the old one.
+     */
+    public void addListener(Consumer<NGramMap> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Applies the delta files WORDSFILENAME and COUNTSFILENAME (which may be null) as
+     * NGramMap.withDelta describes, and publishes the result. Updates are applied one at
+     * a time; queries carry on against the old map until the new one is published.
+     */
+    public synchronized NGramMap applyDelta(String wordsFilename, String countsFilename) {
+        NGramMap next = current.get().withDelta(wordsFilename, countsFilename);
+        publish(next);
+        return next;
+    }
+
+    /**
+     * Builds a new NGramMap with LOADER on a background thread and publishes it in place
+     * of the current one. Returns a future that completes with the new map once it is
+     * published, or exceptionally if LOADER throws, in which case the current map stays.
+     *
+     * Queries keep running against the current map while LOADER works, and any that are
+     * in flight at the swap finish on it. A reload replaces the whole map, so deltas
+     * applied while it is being built are dropped unless LOADER's files include them.
+     *
+     * Reloads are coalesced: while one is being built, further calls return its future
+     * rather than queueing another, so at most one reload is ever pending.
+     */
+    public CompletableFuture<NGramMap> reload(Supplier<NGramMap> loader) {
+        synchronized (reloadLock) {
+            if (reloading != null && !reloading.isDone()) {
+                return reloading;
+            }
+            reloading = CompletableFuture.supplyAsync(() -> {
+                NGramMap next = loader.get();
+                synchronized (this) {
+                    publish(next);
+                }
+                return next;
+            }, reloader);
+            return reloading;
+        }
+    }
+
+    /** Returns whether a reload is being built. */
+    public boolean isReloading() {
+        synchronized (reloadLock) {
+            return reloading != null && !reloading.isDone();
+        }
+    }
+
+    private void publish(NGramMap next) {
+        current.set(next);
+        for (Consumer<NGramMap> listener : listeners) {
+            listener.accept(next);
+        }
+    }
+}
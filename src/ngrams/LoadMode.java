@@ -0,0 +1,16 @@
+package ngrams;
+
+/**
+ * How an NGramMap reads its words file.
+ */
+public enum LoadMode {
+    /** Reads the file line by line on the calling thread. */
+    SEQUENTIAL,
+
+    /**
+     * Memory-maps the file, splits it into newline-aligned chunks and parses the
+     * chunks on the common fork-join pool. Worth it for files of a few hundred
+     * megabytes and up.
+     */
+    PARALLEL
+}
@@ -0,0 +1,171 @@
+package ngrams;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A SeriesStore that reads a memory-mapped snapshot in place. Opening one
+ * costs a header read and, optionally, a checksum pass; words, years and
+ * counts are decoded from the mapping only when a query touches them, so the
+ * heap used by a MappedStore does not grow with the size of the snapshot.
+ *
+ * A MappedByteBuffer cannot span more than 2 GB, so the file is mapped as a
+ * sequence of 1 GB pages. Every value in a snapshot is aligned to its own
+ * size, which means no value ever straddles two pages.
+ *
+ * @see Snapshot
+ */
+final class MappedStore extends SeriesStore {
+
+    static final int PAGE_SHIFT = 30;
+    static final long PAGE_SIZE = 1L << PAGE_SHIFT;
+    private static final long PAGE_MASK = PAGE_SIZE - 1;
+
+    private final ByteBuffer[] pages;
+    private final int words;
+    private final long points;
+    private final long totalsAt;
+    private final long stringsAt;
+    private final long startsAt;
+    private final long endsAt;
+    private final long bytesAt;
+    private final long yearsAt;
+    private final long countsAt;
+    private final long cumulativeAt;
+
+    /** Wraps PAGES, consecutive PAGE_SIZE slices of a snapshot whose header has been checked. */
+    MappedStore(ByteBuffer[] pages) {
+        this.pages = pages;
+        for (ByteBuffer page : pages) {
+            page.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        this.words = pages[0].getInt(8);
+        this.points = pages[0].getLong(16);
+        long stringBytes = pages[0].getLong(24);
+
+        long at = Snapshot.HEADER_BYTES;
+        totalsAt = at;
+        at += 8L * Snapshot.TOTALS_LENGTH;
+        stringsAt = at;
+        at += 8L * (words + 1);
+        startsAt = at;
+        at += 8L * words;
+        endsAt = at;
+        at += 8L * words;
+        bytesAt = at;
+        at = Snapshot.pad(at + stringBytes);
+        yearsAt = at;
+        at = Snapshot.pad(at + 2 * points);
+        countsAt = at;
+        cumulativeAt = countsAt + 8 * points;
+    }
+
+    private ByteBuffer page(long offset) {
+        return pages[(int) (offset >>> PAGE_SHIFT)];
+    }
+
+    private byte getByte(long offset) {
+        return page(offset).get((int) (offset & PAGE_MASK));
+    }
+
+    private short getShort(long offset) {
+        return page(offset).getShort((int) (offset & PAGE_MASK));
+    }
+
+    private long getLong(long offset) {
+        return page(offset).getLong((int) (offset & PAGE_MASK));
+    }
+
+    private double getDouble(long offset) {
+        return page(offset).getDouble((int) (offset & PAGE_MASK));
+    }
+
+    /** Returns the yearly totals stored in the snapshot, indexed by year - MIN_YEAR. */
+    double[] totals() {
+        double[] totals = new double[Snapshot.TOTALS_LENGTH];
+        for (int i = 0; i < totals.length; i += 1) {
+            totals[i] = getDouble(totalsAt + 8L * i);
+        }
+        return totals;
+    }
+
+    @Override
+    int size() {
+        return words;
+    }
+
+    @Override
+    int find(String word) {
+        byte[] key = word.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = words - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareWord(mid, key, Integer.MAX_VALUE);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    int compareWord(int id, byte[] key, int limit) {
+        long from = bytesAt + getLong(stringsAt + 8L * id);
+        int length = (int) Math.min(limit, getLong(stringsAt + 8L * (id + 1)) - getLong(stringsAt + 8L * id));
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i += 1) {
+            int cmp = Integer.compare(getByte(from + i) & 0xFF, key[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    @Override
+    String word(int id) {
+        long from = bytesAt + getLong(stringsAt + 8L * id);
+        int length = (int) (getLong(stringsAt + 8L * (id + 1)) - getLong(stringsAt + 8L * id));
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i += 1) {
+            bytes[i] = getByte(from + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    long start(int id) {
+        return getLong(startsAt + 8L * id);
+    }
+
+    @Override
+    long end(int id) {
+        return getLong(endsAt + 8L * id);
+    }
+
+    @Override
+    int year(long point) {
+        return getShort(yearsAt + 2 * point);
+    }
+
+    @Override
+    double count(long point) {
+        return getDouble(countsAt + 8 * point);
+    }
+
+    @Override
+    double cumulative(long point) {
+        return getDouble(cumulativeAt + 8 * point);
+    }
+
+    @Override
+    long points() {
+        return points;
+    }
+}
@@ -1,10 +1,18 @@
 package ngrams;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import edu.princeton.cs.algs4.In;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.ArrayList;
+import java.util.function.IntToDoubleFunction;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import edu.princeton.cs.algs4.In;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import static ngrams.TimeSeries.MAX_YEAR;
 import static ngrams.TimeSeries.MIN_YEAR;
@@ -17,43 +25,296 @@ import static ngrams.TimeSeries.MIN_YEAR;
  * file". It is not a map in the strict sense, but it does provide additional
  * functionality.
  *
+ * An NGramMap is frozen once constructed: nothing it holds is changed
+ * afterwards (apart from building a search index on first use), and every
+ * TimeSeries it returns is either a new series or a copy-on-write view. It
+ * can therefore be shared by any number of threads without locking. Methods
+ * such as withDelta and withWeightMode return a new NGramMap; LiveNGramMap
+ * publishes such replacements to a running server.
+ *
  * @author Josh Hug
  */
-public class NGramMap {
+public class NGramMap implements NGramQueries {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NGramMap.class);
+
+    /** Word histories, stored column-wise rather than as one TimeSeries per word. */
+    private final SeriesStore store;
+
+    /** Total counts per year. Built once at load time and never modified. */
+    private final DenseTimeSeries totals;
+
+    /**
+     * The weight of every point of STORE, in the same order, or null if weights are
+     * computed on the fly. A point whose year has no total holds NaN.
+     */
+    private final double[] weights;
+
+    /**
+     * Index of the words by suffix, for wildcard patterns such as "*tion". Built on first
+     * use, since most maps never need it; two threads may both build it, harmlessly.
+     */
+    private volatile SuffixIndex suffixIndex;
+
+    /** Decade sums of every word's weights, for similarWords. Built on first use, like suffixIndex. */
+    private volatile DecadeIndex decadeIndex;
 
-    private Map<String, TimeSeries> MAP = new HashMap<>();
-    private Map<Integer, Double> COUNTS = new HashMap<>();
-    
     /**
      * Constructs an NGramMap from WORDSFILENAME and COUNTSFILENAME.
      */
     public NGramMap(String wordsFilename, String countsFilename) {
-        // The crux of our work will be to parse through data files and store in a
-        // data structure. As we know, from our first incursion into this haunting and
-        // unfamiliar codebase, the TimeSeries are essentially wrappers around a 
-        // TreeMap structure, through which we can "bundle" a given word's 
-        // "history" (or more simply the list of its years) and any corresponding
-        // data for each year, e.g., occurrences of the word.
-        
-        // Here we enter deeper forests...
-
-        // NGramMap is an interface that we'll define to help us create TimeSeries.
-        // Our interface needs to bundle the appearances of a given word within a time period.
-        // To create a time series, we'll need to reach this black box, find the relevant keyword,
-        // and store the bounds to be used in our TimeSeries. 
-        // What could this "black box" possibly be? Maybe a dictionary...
-        
-        // This is what our NGramMap will be... a hashmap that indexes the entire history of 
-        // language evolution based on any given word!
-
-        // So how do we do this? The first thought is to parse our words file, extract all unigrams
-        // and insert them into a hashmap. Our values will consist of tuples storing both the year
-        // and appearances.
-
-        // On second thought, this latter tuple looks a lot like a TimeSeries!
-        // We could modify our conceptual hashmap to hold words as keys and TimeSeries
-        // as values. 
+        this(wordsFilename, countsFilename, LoadMode.SEQUENTIAL);
+    }
+
+    /**
+     * Constructs an NGramMap from WORDSFILENAME and COUNTSFILENAME, reading the words
+     * file as MODE describes. Prints the load rate in lines per second when done.
+     */
+    public NGramMap(String wordsFilename, String countsFilename, LoadMode mode) {
+        // Each line of the words file is one (word, year, count) point. Instead of
+        // building a TimeSeries (a map of boxed years and counts) per word, we
+        // hand the points to a ColumnStore, which packs every word's history into
+        // shared primitive arrays once the whole file has been read.
+        ColumnStore.Builder builder = new ColumnStore.Builder();
+        long startTime = System.nanoTime();
+        long lines;
+        if (mode == LoadMode.PARALLEL) {
+            lines = ChunkedLoader.load(wordsFilename, builder);
+        } else {
+            lines = readWords(wordsFilename, builder);
+        }
+        store = builder.build();
+        weights = null;
+        long elapsed = System.nanoTime() - startTime;
+        LOG.info("Loaded {} lines from {} in {} ms ({} lines/s, {})",
+                lines, wordsFilename, elapsed / 1_000_000,
+                Math.round(lines / Math.max(elapsed / 1e9, 1e-9)), mode);
+
+        // We'll also parse our counts into a dense array indexed by year.
+        totals = DenseTimeSeries.fromArray(readTotals(countsFilename));
+    }
+
+    /**
+     * Constructs an NGramMap from SNAPSHOTFILENAME, a snapshot written by export or
+     * writeSnapshot. The snapshot is memory-mapped and read in place, so this takes time
+     * proportional to the file size only for its checksum pass.
+     */
+    public NGramMap(String snapshotFilename) {
+        this(snapshotFilename, true);
+    }
+
+    /**
+     * Constructs an NGramMap from SNAPSHOTFILENAME, verifying its checksum only if
+     * VERIFYCHECKSUM is true. Word histories stay in the mapped file rather than on the
+     * heap, so this works for snapshots far larger than the heap; skipping verification
+     * makes opening one independent of its size.
+     */
+    public NGramMap(String snapshotFilename, boolean verifyChecksum) {
+        MappedStore mapped = Snapshot.open(snapshotFilename, verifyChecksum);
+        store = mapped;
+        totals = DenseTimeSeries.fromArray(mapped.totals());
+        weights = null;
+    }
+
+    NGramMap(SeriesStore store, DenseTimeSeries totals, double[] weights) {
+        this.store = store;
+        this.totals = totals;
+        this.weights = weights;
+    }
+
+    /**
+     * Returns which of SHARDS shards WORD belongs to when the vocabulary is partitioned
+     * across processes. Depends only on the word, so every process agrees.
+     */
+    public static int shardOf(String word, int shards) {
+        return Math.floorMod(word.hashCode(), shards);
+    }
+
+    /**
+     * Constructs an NGramMap of the words in WORDSFILENAME that belong to shard SHARD of
+     * SHARDS (see shardOf), with every yearly total from COUNTSFILENAME. The rows of other
+     * words are parsed but never stored. A ShardedNGramMap queries such shards together.
+     */
+    public static NGramMap shard(String wordsFilename, String countsFilename, int shard, int shards) {
+        if (shards < 1 || shard < 0 || shard >= shards) {
+            throw new IllegalArgumentException("No shard " + shard + " of " + shards + ".");
+        }
+        ColumnStore.Builder builder = new ColumnStore.Builder();
+        long startTime = System.nanoTime();
+        long lines = ChunkedLoader.stream(wordsFilename, (word, year, count) -> {
+            if (shardOf(word, shards) == shard) {
+                builder.add(word, year, count);
+            }
+        });
+        SeriesStore store = builder.build();
+        LOG.info("Loaded shard {}/{} from {} in {} ms ({} of {} rows)", shard, shards,
+                wordsFilename, (System.nanoTime() - startTime) / 1_000_000, store.points(), lines);
+        return new NGramMap(store, DenseTimeSeries.fromArray(readTotals(countsFilename)), null);
+    }
+
+    /**
+     * Constructs an NGramMap of the 1-, 2- and 3-grams in NGRAMFILENAMES, files with
+     * rows like those of a words file but whose first field may be several words
+     * separated by spaces (n-gram TAB year TAB count ...), and of the yearly totals in
+     * COUNTSFILENAME. Every query takes such n-grams wherever it takes a word, e.g.
+     * countHistory("united states"). N-grams are stored as packed word IDs rather than
+     * as strings; see PhraseTable.
+     */
+    public static NGramMap ofNGrams(List<String> ngramFilenames, String countsFilename) {
+        PhraseTable.Builder builder = new PhraseTable.Builder();
+        long startTime = System.nanoTime();
+        long lines = 0;
+        for (String filename : ngramFilenames) {
+            lines += ChunkedLoader.stream(filename, builder);
+        }
+        SeriesStore store = builder.build();
+        LOG.info("Loaded {} n-grams ({} lines) from {} in {} ms", store.size(), lines,
+                String.join(", ", ngramFilenames), (System.nanoTime() - startTime) / 1_000_000);
+        return new NGramMap(store, DenseTimeSeries.fromArray(readTotals(countsFilename)), null);
+    }
+
+    /**
+     * Returns an NGramMap over the same data that computes weights as MODE describes.
+     * The data itself is shared, not copied. PRECOMPUTED trades 8 bytes of heap per
+     * (word, year) point for weight queries that never divide.
+     */
+    public NGramMap withWeightMode(WeightMode mode) {
+        if (mode == WeightMode.ON_THE_FLY) {
+            return weights == null ? this : new NGramMap(store, totals, null);
+        }
+        if (weights != null) {
+            return this;
+        }
+        return new NGramMap(store, totals, computeWeights(store, totals));
+    }
+
+    /**
+     * Returns an NGramMap over the same data with its points kept as MODE describes. Weights
+     * precomputed for this map are kept as they are.
+     */
+    public NGramMap withStorageMode(StorageMode mode) {
+        if (mode == StorageMode.PLAIN) {
+            return store instanceof CompressedStore compressed
+                    ? new NGramMap(compressed.decompress(), totals, weights)
+                    : this;
+        }
+        if (store instanceof CompressedStore) {
+            return this;
+        }
+        long startTime = System.nanoTime();
+        CompressedStore compressed = CompressedStore.of(store);
+        LOG.info("Compressed {} points into {} bytes ({} bytes/point) in {} ms",
+                compressed.points(), compressed.pointBytes(),
+                String.format("%.1f", compressed.pointBytes() / (double) Math.max(compressed.points(), 1)),
+                (System.nanoTime() - startTime) / 1_000_000);
+        return new NGramMap(compressed, totals, weights);
+    }
+
+    /** Returns the weight of every point of STORE, with NaN where TOTALS lacks the year. */
+    private static double[] computeWeights(SeriesStore store, DenseTimeSeries totals) {
+        return computeWeights(store, totals, new double[0], 0);
+    }
+
+    /**
+     * Returns the weight of every point of STORE, with NaN where TOTALS lacks the year. The
+     * weights of the first FROM points are copied from KNOWN instead of computed.
+     */
+    private static double[] computeWeights(SeriesStore store, DenseTimeSeries totals, double[] known, long from) {
+        if (store.points() > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many points (" + store.points()
+                    + ") for a precomputed weight index.");
+        }
+        double[] w = new double[(int) store.points()];
+        System.arraycopy(known, 0, w, 0, (int) from);
+        for (long p = from; p < store.points(); p += 1) {
+            int year = store.year(p);
+            w[(int) p] = totals.contains(year) ? store.count(p) / totals.get(year) : Double.NaN;
+        }
+        return w;
+    }
+
+    /**
+     * Returns an NGramMap with the rows of the delta file WORDSFILENAME added to this
+     * one's data, leaving this NGramMap unchanged. A row for a word and year that already
+     * has a count replaces it; rows for new years or new words are added. If
+     * COUNTSFILENAME is not null, its yearly totals likewise replace or add to these.
+     *
+     * Only the histories of words in the delta are copied; everything else is shared
+     * with this NGramMap, however it was loaded. A precomputed weight index is rebuilt
+     * if COUNTSFILENAME is given, since new totals may change the weight of any point;
+     * otherwise only the weights of the copied histories are computed.
+     */
+    public NGramMap withDelta(String wordsFilename, String countsFilename) {
+        ColumnStore.Builder rows = new ColumnStore.Builder();
+        ChunkedLoader.stream(wordsFilename, rows);
+        OverlayStore merged = OverlayStore.apply(store, rows.build());
+
+        if (countsFilename == null) {
+            // The totals are unchanged, and the overlay keeps the points of its base, and so
+            // their weights, at the same indices; only the points of the patch are new.
+            return new NGramMap(merged, totals, weights == null ? null
+                    : computeWeights(merged, totals, weights, merged.basePoints()));
+        }
+        DenseTimeSeries newTotals = new DenseTimeSeries();
+        newTotals.copyFrom(totals);
+        double[] delta = readTotals(countsFilename);
+        for (int i = 0; i < delta.length; i += 1) {
+            if (!Double.isNaN(delta[i])) {
+                newTotals.put(MIN_YEAR + i, delta[i]);
+            }
+        }
+        return new NGramMap(merged, newTotals, weights == null ? null : computeWeights(merged, newTotals));
+    }
+
+    /** Returns how this NGramMap computes weights. */
+    public WeightMode weightMode() {
+        return weights == null ? WeightMode.ON_THE_FLY : WeightMode.PRECOMPUTED;
+    }
+
+    /**
+     * Writes this NGramMap to SNAPSHOTFILENAME in a compact binary format that the
+     * one-argument constructor can load without parsing any text.
+     */
+    public void export(String snapshotFilename) {
+        Snapshot.write(store, totals.toArray(), snapshotFilename);
+    }
+
+    /**
+     * Converts WORDSFILENAME and COUNTSFILENAME into a snapshot at SNAPSHOTFILENAME
+     * without building an NGramMap, for data sets that do not fit on the heap. Only
+     * the vocabulary is kept in memory during the conversion. The rows of each word
+     * must be adjacent in the words file.
+     */
+    public static void writeSnapshot(String wordsFilename, String countsFilename, String snapshotFilename) {
+        Snapshot.convert(wordsFilename, readTotals(countsFilename), snapshotFilename);
+    }
+
+    /** Reads COUNTSFILENAME into an array indexed by year - MIN_YEAR, with NaN for missing years. */
+    static double[] readTotals(String countsFilename) {
+        double[] totals = new double[MAX_YEAR - MIN_YEAR + 1];
+        Arrays.fill(totals, Double.NaN);
+        In in2 = new In(countsFilename);
+        while(!in2.isEmpty()) {
+            String nextLine = in2.readLine();
+            String[] splitLine = nextLine.split(",");
+            int year = Integer.parseInt(splitLine[0]);
+            double total_count = Double.parseDouble(splitLine[1]);
+
+            if (year < MIN_YEAR || year > MAX_YEAR) {
+                throw new IllegalArgumentException("Year " + year + " is outside of "
+                        + MIN_YEAR + "-" + MAX_YEAR + ".");
+            }
+            if (Double.isNaN(totals[year - MIN_YEAR])) {
+                totals[year - MIN_YEAR] = total_count;
+            }
+        }
+        return totals;
+    }
+
+    /** Reads WORDSFILENAME one line at a time into BUILDER and returns the number of lines. */
+    private static long readWords(String wordsFilename, ColumnStore.Builder builder) {
         In in = new In(wordsFilename);
+        long lines = 0;
 
         // Retrieve words from words_file
         while(!in.isEmpty()) {
@@ -62,30 +323,132 @@ public class NGramMap {
             String w = splitLine[0];
             int year = Integer.parseInt(splitLine[1]);
             double appearances = Double.parseDouble(splitLine[2]);
+            builder.add(w, year, appearances);
+            lines += 1;
+        }
+        return lines;
+    }
 
-            // if the dictionary is empty
-            if (MAP.get(w) == null) {
-                TimeSeries ts = new TimeSeries();
-                ts.put(year, appearances);
-                MAP.put(w, ts);
-            } else {
-                MAP.get(w).put(year, appearances);
-            }
+    /** Returns the total count of YEAR, or throws if the counts file does not have it. */
+    private double total(int year) {
+        if (!totals.contains(year)) {
+            throw new IllegalArgumentException("Can't divide by a year that doesn't exist.");
         }
+        return totals.get(year);
+    }
 
+    /**
+     * Adds the counts of word ID between STARTYEAR and ENDYEAR to SUM. Years outside
+     * MIN_YEAR to MAX_YEAR have no totals to divide by, so they are skipped.
+     */
+    private void addCounts(int id, int startYear, int endYear, DenseTimeSeries sum) {
+        store.addCounts(id, Math.max(startYear, MIN_YEAR), Math.min(endYear, MAX_YEAR), sum);
+    }
 
-        // We'll also parse our counts into a separate hashmap.
-        In in2 = new In(countsFilename);
-        while(!in2.isEmpty()) {
-            String nextLine = in2.readLine();
-            String[] splitLine = nextLine.split(",");
-            int year = Integer.parseInt(splitLine[0]);
-            double total_count = Double.parseDouble(splitLine[1]);
+    /**
+     * The points of one word, seen by a TimeSeries through indices relative to the
+     * first point, so that views work even when a store holds more than 2^31 points.
+     */
+    private static final class CountSource extends TimeSeries.Source {
+        private final SeriesStore store;
+        private final long base;
+
+        CountSource(SeriesStore store, long base) {
+            this.store = store;
+            this.base = base;
+        }
+
+        @Override
+        int year(int i) {
+            return store.year(base + i);
+        }
+
+        @Override
+        double value(int i) {
+            return store.count(base + i);
+        }
+    }
+
+    /** Like CountSource, but with values taken from the precomputed weights. */
+    private static final class WeightSource extends TimeSeries.Source {
+        private final SeriesStore store;
+        private final double[] weights;
+        private final long base;
+
+        WeightSource(SeriesStore store, double[] weights, long base) {
+            this.store = store;
+            this.weights = weights;
+            this.base = base;
+        }
+
+        @Override
+        int year(int i) {
+            return store.year(base + i);
+        }
+
+        @Override
+        double value(int i) {
+            return weights[(int) (base + i)];
+        }
+    }
+
+    /** Returns a view of the points of word ID between STARTYEAR and ENDYEAR. */
+    private TimeSeries counts(int id, int startYear, int endYear) {
+        long lo = store.lowerBound(id, startYear);
+        long hi = endYear == Integer.MAX_VALUE ? store.end(id) : store.lowerBound(id, endYear + 1);
+        return TimeSeries.view(new CountSource(store, lo), 0, (int) Math.max(0, hi - lo));
+    }
+
+    /** Returns the weight of point P, from the index if there is one. */
+    private double weight(long p) {
+        if (weights == null) {
+            return store.count(p) / total(store.year(p));
+        }
+        double w = weights[(int) p];
+        if (Double.isNaN(w)) {
+            throw new IllegalArgumentException("Can't divide by a year that doesn't exist.");
+        }
+        return w;
+    }
 
-            if (COUNTS.get(year) == null) {
-                COUNTS.put(year, total_count);
+    /**
+     * Returns the points of word ID between STARTYEAR and ENDYEAR divided by the yearly totals.
+     * With precomputed weights this is a view of the index; otherwise the quotients are computed
+     * into a new TimeSeries.
+     */
+    private TimeSeries weights(int id, int startYear, int endYear) {
+        long lo = store.lowerBound(id, startYear);
+        long hi = endYear == Integer.MAX_VALUE ? store.end(id) : store.lowerBound(id, endYear + 1);
+        if (weights != null) {
+            for (long p = lo; p < hi; p += 1) {
+                if (Double.isNaN(weights[(int) p])) {
+                    throw new IllegalArgumentException("Can't divide by a year that doesn't exist.");
+                }
             }
+            return TimeSeries.view(new WeightSource(store, weights, lo), 0, (int) Math.max(0, hi - lo));
+        }
+        TimeSeries ts = new TimeSeries();
+        for (long p = lo; p < hi; p += 1) {
+            ts.put(store.year(p), weight(p));
         }
+        return ts;
+    }
+
+    /**
+     * Like weights(ID, STARTYEAR, ENDYEAR), but with NaN for years without a total instead
+     * of an exception, for callers that check only part of the result.
+     */
+    private TimeSeries weightsOrNaN(int id, int startYear, int endYear) {
+        long lo = store.lowerBound(id, startYear);
+        long hi = endYear == Integer.MAX_VALUE ? store.end(id) : store.lowerBound(id, endYear + 1);
+        if (weights != null) {
+            return TimeSeries.view(new WeightSource(store, weights, lo), 0, (int) Math.max(0, hi - lo));
+        }
+        TimeSeries ts = new TimeSeries();
+        for (long p = lo; p < hi; p += 1) {
+            ts.put(store.year(p), weightOrNaN(p));
+        }
+        return ts;
     }
 
     /**
@@ -96,12 +459,12 @@ public class NGramMap {
      * returns an empty TimeSeries.
      */
     public TimeSeries countHistory(String word, int startYear, int endYear) {
-        // retrieve ts
-        TimeSeries ts = new TimeSeries();
-        if (MAP.get(word) == null) return ts;
-        ts = MAP.get(word);
-        TimeSeries bounded_ts = new TimeSeries(ts, startYear, endYear);
-        return bounded_ts;
+        if (startYear > endYear) {
+            throw new IllegalArgumentException("Start year cannot be after end year.");
+        }
+        int id = store.find(word);
+        if (id < 0) return new TimeSeries();
+        return counts(id, startYear, endYear);
     }
 
     /**
@@ -111,20 +474,16 @@ public class NGramMap {
      * is not in the data files, returns an empty TimeSeries.
      */
     public TimeSeries countHistory(String word) {
-        // retrieve dictionary based on word
-        TimeSeries ts = new TimeSeries();
-        if (MAP.get(word) == null) return ts;
-        ts = MAP.get(word);
-        return ts;
+        int id = store.find(word);
+        if (id < 0) return new TimeSeries();
+        return counts(id, Integer.MIN_VALUE, Integer.MAX_VALUE);
     }
 
     /**
      * Returns a defensive copy of the total number of words recorded per year in all volumes.
      */
     public TimeSeries totalCountHistory() {
-        TimeSeries ts = new TimeSeries();
-        COUNTS.forEach((key, value) -> ts.put(key, value));
-        return ts;
+        return totals.toTimeSeries();
     }
 
     /**
@@ -133,16 +492,12 @@ public class NGramMap {
      * TimeSeries.
      */
     public TimeSeries weightHistory(String word, int startYear, int endYear) {
-        TimeSeries ts = new TimeSeries();
-        TimeSeries ts2 = totalCountHistory();
-        if (MAP.get(word) == null) { 
-            return ts;
-        } else {
-            // get the TS for the word and divide by the TS for counts
-            ts = countHistory(word, startYear, endYear);
-            TimeSeries bounded_ts2 = new TimeSeries(ts2, startYear, endYear);
-            return ts.dividedBy(bounded_ts2);
+        if (startYear > endYear) {
+            throw new IllegalArgumentException("Start year cannot be after end year.");
         }
+        int id = store.find(word);
+        if (id < 0) return new TimeSeries();
+        return weights(id, startYear, endYear);
     }
 
     /**
@@ -151,14 +506,57 @@ public class NGramMap {
      * TimeSeries.
      */
     public TimeSeries weightHistory(String word) {
-        TimeSeries ts = new TimeSeries();
-        TimeSeries ts2 = totalCountHistory();
-        if (MAP.get(word) == null) {
-            return ts;
-        } else {
-            ts = countHistory(word);
-            return ts.dividedBy(ts2);
+        int id = store.find(word);
+        if (id < 0) return new TimeSeries();
+        return weights(id, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the total count of WORD between STARTYEAR and ENDYEAR, inclusive of both ends,
+     * without building a TimeSeries. Takes two binary searches over the word's years, no
+     * matter how wide the range. Returns 0 if the word is not in the data files.
+     */
+    public double rangeSum(String word, int startYear, int endYear) {
+        if (startYear > endYear) {
+            throw new IllegalArgumentException("Start year cannot be after end year.");
+        }
+        int id = store.find(word);
+        if (id < 0) return 0;
+        return store.rangeSum(id, startYear, endYear);
+    }
+
+    /**
+     * Returns the mean count of WORD over the years between STARTYEAR and ENDYEAR (inclusive)
+     * in which it was recorded, without building a TimeSeries. Returns NaN if the word has no
+     * data in that range.
+     */
+    public double rangeMean(String word, int startYear, int endYear) {
+        if (startYear > endYear) {
+            throw new IllegalArgumentException("Start year cannot be after end year.");
         }
+        int id = store.find(word);
+        if (id < 0) return Double.NaN;
+        long n = store.rangeCount(id, startYear, endYear);
+        if (n == 0) return Double.NaN;
+        return store.rangeSum(id, startYear, endYear) / n;
+    }
+
+    /**
+     * Returns the total count of all words in WORDS between STARTYEAR and ENDYEAR, inclusive
+     * of both ends. Words that are not in the data files are ignored.
+     */
+    public double summedRangeSum(Collection<String> words, int startYear, int endYear) {
+        if (startYear > endYear) {
+            throw new IllegalArgumentException("Start year cannot be after end year.");
+        }
+        double sum = 0;
+        for (String word : words) {
+            int id = store.find(word);
+            if (id >= 0) {
+                sum += store.rangeSum(id, startYear, endYear);
+            }
+        }
+        return sum;
     }
 
     /**
@@ -167,23 +565,46 @@ public class NGramMap {
      * rather than throwing an exception.
      */
     public TimeSeries summedWeightHistory(Collection<String> words, int startYear, int endYear) {
-        TimeSeries sum = new TimeSeries();
+        if (startYear > endYear) {
+            throw new IllegalArgumentException("Start year cannot be after end year.");
+        }
+        int[] ids = new int[words.size()];
+        int n = 0;
         for (String word : words) {
-            if (countHistory(word, startYear, endYear).isEmpty()) {
-                continue;
-            }
+            ids[n++] = store.find(word);
+        }
+        DenseTimeSeries sum = new DenseTimeSeries();
+        addWeights(ids, startYear, endYear, sum);
+        return sum.toTimeSeries();
+    }
 
-            if (sum.isEmpty()) {
-                sum = countHistory(word, startYear, endYear);
-            } else {
-                TimeSeries ts = countHistory(word, startYear, endYear);
-                sum = sum.plus(ts);
+    /**
+     * Adds the weights of the words with the given IDS between STARTYEAR and ENDYEAR to
+     * SUM, which must start out empty. Negative IDs, for words not in the data files, are
+     * skipped.
+     */
+    private void addWeights(int[] ids, int startYear, int endYear, DenseTimeSeries sum) {
+        if (weights != null) {
+            // Weights are already normalized, so summing them is all that is left.
+            int from = Math.max(startYear, MIN_YEAR);
+            int to = Math.min(endYear, MAX_YEAR);
+            for (int id : ids) {
+                if (id < 0) {
+                    continue;
+                }
+                for (long p = store.lowerBound(id, from); p < store.end(id) && store.year(p) <= to; p += 1) {
+                    sum.add(store.year(p), weight(p));
+                }
             }
+            return;
         }
 
-        TimeSeries total = new TimeSeries(totalCountHistory(), startYear, endYear);
-
-        return sum.dividedBy(total);
+        for (int id : ids) {
+            if (id >= 0) {
+                addCounts(id, startYear, endYear, sum);
+            }
+        }
+        sum.dividedByInPlace(totals);
     }
 
     /**
@@ -191,22 +612,469 @@ public class NGramMap {
      * exist in this time frame, ignore it rather than throwing an exception.
      */
     public TimeSeries summedWeightHistory(Collection<String> words) {
-        TimeSeries sum = new TimeSeries();
-        for (String word : words) {
-            if (countHistory(word).isEmpty()) {
+        return summedWeightHistory(words, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /** Looks up every distinct word of QUERIES once. */
+    private Map<String, Integer> findAll(List<BatchQuery> queries) {
+        Map<String, Integer> ids = new HashMap<>();
+        for (BatchQuery q : queries) {
+            for (String word : q.words()) {
+                ids.computeIfAbsent(word, store::find);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Evaluates summedWeightHistory for each of QUERIES, returning the results in the same
+     * order, in one pass over the data: each distinct word is looked up once, and its points
+     * are walked once and added into every query that uses it. Queries that repeat an
+     * earlier one share its result (as a copy-on-write view) instead of being summed again.
+     */
+    public List<TimeSeries> batchSummedWeightHistory(List<BatchQuery> queries) {
+        Map<BatchQuery, Integer> slots = new HashMap<>();
+        List<BatchQuery> distinct = new ArrayList<>();
+        int[] slot = new int[queries.size()];
+        for (int i = 0; i < slot.length; i += 1) {
+            slot[i] = slots.computeIfAbsent(queries.get(i), q -> {
+                distinct.add(q);
+                return distinct.size() - 1;
+            });
+        }
+
+        // The distinct queries using each word, once for every time the word appears in them.
+        Map<String, Integer> ids = findAll(queries);
+        Map<Integer, List<Integer>> users = new LinkedHashMap<>();
+        for (int j = 0; j < distinct.size(); j += 1) {
+            for (String word : distinct.get(j).words()) {
+                int id = ids.get(word);
+                if (id >= 0) {
+                    users.computeIfAbsent(id, k -> new ArrayList<>()).add(j);
+                }
+            }
+        }
+
+        DenseTimeSeries[] sums = new DenseTimeSeries[distinct.size()];
+        for (int j = 0; j < sums.length; j += 1) {
+            sums[j] = new DenseTimeSeries();
+        }
+        DenseTimeSeries counts = new DenseTimeSeries();
+        for (Map.Entry<Integer, List<Integer>> e : users.entrySet()) {
+            int id = e.getKey();
+            List<Integer> using = e.getValue();
+            int from = MAX_YEAR;
+            int to = MIN_YEAR;
+            for (int j : using) {
+                from = Math.min(from, Math.max(distinct.get(j).startYear(), MIN_YEAR));
+                to = Math.max(to, Math.min(distinct.get(j).endYear(), MAX_YEAR));
+            }
+            if (weights != null) {
+                for (long p = store.lowerBound(id, from); p < store.end(id) && store.year(p) <= to; p += 1) {
+                    int year = store.year(p);
+                    for (int j : using) {
+                        if (distinct.get(j).startYear() <= year && year <= distinct.get(j).endYear()) {
+                            sums[j].add(year, weight(p));
+                        }
+                    }
+                }
                 continue;
             }
+            // Without weights the counts are summed and divided by the totals at the end, as
+            // in summedWeightHistory; addCounts lets an encoded store decode them in one pass.
+            counts.clear();
+            addCounts(id, from, to, counts);
+            for (int j : using) {
+                int last = Math.min(distinct.get(j).endYear(), to);
+                for (int year = Math.max(distinct.get(j).startYear(), from); year <= last; year += 1) {
+                    if (counts.contains(year)) {
+                        sums[j].add(year, counts.get(year));
+                    }
+                }
+            }
+        }
+
+        TimeSeries[] results = new TimeSeries[distinct.size()];
+        List<TimeSeries> ordered = new ArrayList<>(queries.size());
+        for (int j : slot) {
+            if (results[j] != null) {
+                ordered.add(new TimeSeries(results[j], Integer.MIN_VALUE, Integer.MAX_VALUE));
+                continue;
+            }
+            if (weights == null) {
+                sums[j].dividedByInPlace(totals);
+            }
+            results[j] = sums[j].toTimeSeries();
+            ordered.add(results[j]);
+        }
+        return ordered;
+    }
+
+    /**
+     * Evaluates weightHistory for every word of each of QUERIES. Result i holds one
+     * TimeSeries per word of query i, in the same order. Each distinct word is looked up
+     * once, and its points are walked once over the widest range any query asks of it;
+     * each query then gets a copy-on-write view of its own years. A year without a total
+     * fails the batch only if some query asks for it, as it would fail weightHistory.
+     */
+    public List<List<TimeSeries>> batchWeightHistory(List<BatchQuery> queries) {
+        Map<String, Integer> ids = findAll(queries);
+        Map<Integer, int[]> spans = new HashMap<>();
+        for (BatchQuery q : queries) {
+            for (String word : q.words()) {
+                int id = ids.get(word);
+                if (id >= 0) {
+                    spans.merge(id, new int[] {q.startYear(), q.endYear()}, (span, more) -> {
+                        span[0] = Math.min(span[0], more[0]);
+                        span[1] = Math.max(span[1], more[1]);
+                        return span;
+                    });
+                }
+            }
+        }
+        Map<Integer, TimeSeries> walked = new HashMap<>();
+        for (Map.Entry<Integer, int[]> e : spans.entrySet()) {
+            walked.put(e.getKey(), weightsOrNaN(e.getKey(), e.getValue()[0], e.getValue()[1]));
+        }
 
-            if (sum.isEmpty()) {
-                sum = countHistory(word);
-            } else {
-                TimeSeries ts = countHistory(word);
-                sum = sum.plus(ts);
+        List<List<TimeSeries>> results = new ArrayList<>(queries.size());
+        for (BatchQuery q : queries) {
+            List<TimeSeries> histories = new ArrayList<>(q.words().size());
+            for (String word : q.words()) {
+                int id = ids.get(word);
+                if (id < 0) {
+                    histories.add(new TimeSeries());
+                    continue;
+                }
+                TimeSeries ts = new TimeSeries(walked.get(id), q.startYear(), q.endYear());
+                for (int i = 0; i < ts.size(); i += 1) {
+                    if (Double.isNaN(ts.valueAt(i))) {
+                        throw new IllegalArgumentException("Can't divide by a year that doesn't exist.");
+                    }
+                }
+                histories.add(ts);
             }
+            results.add(histories);
+        }
+        return results;
+    }
+
+    /**
+     * Returns the IDs of the words matching PATTERN, in increasing order. In PATTERN, '*'
+     * matches any run of characters and '?' any single character. A pattern with a
+     * literal prefix, such as "q*", is a range of IDs found by binary search, and one
+     * with only a literal suffix, such as "*tion", is a range of the suffix index.
+     * Other patterns are checked against every word of that range, or of the whole
+     * vocabulary if there is neither prefix nor suffix.
+     */
+    private int[] matchingIds(String pattern) {
+        int first = firstWildcard(pattern);
+        if (first < 0) {
+            int id = store.find(pattern);
+            return id < 0 ? new int[0] : new int[] {id};
         }
+        String prefix = pattern.substring(0, first);
+        String suffix = pattern.substring(Math.max(pattern.lastIndexOf('*'), pattern.lastIndexOf('?')) + 1);
 
-        TimeSeries total = totalCountHistory();
+        int[] candidates;
+        boolean allMatch;
+        if (!prefix.isEmpty()) {
+            int[] range = store.prefixRange(prefix);
+            candidates = new int[Math.max(0, range[1] - range[0])];
+            for (int i = 0; i < candidates.length; i += 1) {
+                candidates[i] = range[0] + i;
+            }
+            allMatch = pattern.equals(prefix + "*");
+        } else if (!suffix.isEmpty()) {
+            SuffixIndex index = suffixIndex;
+            if (index == null) {
+                index = SuffixIndex.of(store);
+                suffixIndex = index;
+            }
+            candidates = index.endingWith(suffix);
+            allMatch = pattern.equals("*" + suffix);
+        } else {
+            candidates = new int[store.size()];
+            for (int i = 0; i < candidates.length; i += 1) {
+                candidates[i] = i;
+            }
+            allMatch = pattern.chars().allMatch(c -> c == '*');
+        }
+        if (allMatch) {
+            return candidates;
+        }
+
+        Pattern regex = globToRegex(pattern);
+        int n = 0;
+        for (int id : candidates) {
+            if (regex.matcher(store.word(id)).matches()) {
+                candidates[n++] = id;
+            }
+        }
+        return Arrays.copyOf(candidates, n);
+    }
 
-        return sum.dividedBy(total);
+    private static int firstWildcard(String pattern) {
+        for (int i = 0; i < pattern.length(); i += 1) {
+            if (pattern.charAt(i) == '*' || pattern.charAt(i) == '?') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Pattern globToRegex(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        int literal = 0;
+        for (int i = 0; i <= pattern.length(); i += 1) {
+            char c = i < pattern.length() ? pattern.charAt(i) : '*';
+            if (c != '*' && c != '?') {
+                continue;
+            }
+            if (i > literal) {
+                regex.append(Pattern.quote(pattern.substring(literal, i)));
+            }
+            if (i < pattern.length()) {
+                regex.append(c == '*' ? ".*" : ".");
+            }
+            literal = i + 1;
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Returns the words matching PATTERN, where '*' matches any run of characters and '?'
+     * any single character, in code point order. For example, "q*" gives every word
+     * starting with q and "*tion" every word ending with tion. A pattern without
+     * wildcards gives just that word, if it is in the data files.
+     */
+    public List<String> matchingWords(String pattern) {
+        int[] ids = matchingIds(pattern);
+        List<String> words = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            words.add(store.word(id));
+        }
+        return words;
+    }
+
+    /**
+     * Provides the summed relative frequency per year, between STARTYEAR and ENDYEAR, of
+     * all words matching PATTERN (see matchingWords). Equivalent to summedWeightHistory
+     * of the matching words, but never looks the words up by String.
+     */
+    public TimeSeries wildcardWeightHistory(String pattern, int startYear, int endYear) {
+        if (startYear > endYear) {
+            throw new IllegalArgumentException("Start year cannot be after end year.");
+        }
+        DenseTimeSeries sum = new DenseTimeSeries();
+        addWeights(matchingIds(pattern), startYear, endYear, sum);
+        return sum.toTimeSeries();
+    }
+
+    /** The fewest words worth handing to a thread of their own when ranking. */
+    private static final int TOP_K_CHUNK = 4096;
+
+    /**
+     * Returns the K words with the highest score by RANKING between STARTYEAR and ENDYEAR,
+     * best first, with ties going to the word that comes first. Only words with a positive
+     * score are ranked, so fewer than K may be returned. Years without a total count are
+     * left out of every score.
+     */
+    public List<RankedWord> topK(int k, int startYear, int endYear, Ranking ranking) {
+        return topK(List.of(), k, startYear, endYear, ranking);
+    }
+
+    /**
+     * Like topK(K, STARTYEAR, ENDYEAR, RANKING), but only ranks the words matching one of
+     * PATTERNS (see matchingWords). If PATTERNS is empty, every word is ranked.
+     *
+     * The words are split into chunks that are scored in parallel, each into a bounded
+     * heap of its own, and the heaps are merged at the end. Scoring reads the columns of
+     * the store directly, so no TimeSeries is built for any word.
+     */
+    public List<RankedWord> topK(Collection<String> patterns, int k, int startYear, int endYear,
+                                 Ranking ranking) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive, not " + k + ".");
+        }
+        if (startYear > endYear) {
+            throw new IllegalArgumentException("Start year cannot be after end year.");
+        }
+        int[] candidates = patterns.isEmpty() ? null : matchingIds(patterns);
+        int from = Math.max(startYear, MIN_YEAR);
+        int to = Math.min(endYear, MAX_YEAR);
+
+        return rank(candidates, k, ranking == Ranking.WEIGHT
+                ? id -> rangeWeight(id, from, to)
+                : id -> yearWeight(id, endYear) - yearWeight(id, startYear));
+    }
+
+    /**
+     * Returns the K words with the highest positive SCORE among CANDIDATES, or among all
+     * words if CANDIDATES is null, best first. K may exceed the number of candidates.
+     */
+    private List<RankedWord> rank(int[] candidates, int k, IntToDoubleFunction score) {
+        int n = candidates == null ? store.size() : candidates.length;
+        // Every heap below is allocated at full size, so K must not exceed what can fill it.
+        int limit = Math.min(k, n);
+        int chunks = Math.max(1, Math.min(4 * Runtime.getRuntime().availableProcessors(),
+                (n + TOP_K_CHUNK - 1) / TOP_K_CHUNK));
+        TopK best = IntStream.range(0, chunks).parallel().mapToObj(c -> {
+            TopK heap = new TopK(limit);
+            int hi = (int) ((long) n * (c + 1) / chunks);
+            for (int i = (int) ((long) n * c / chunks); i < hi; i += 1) {
+                int id = candidates == null ? i : candidates[i];
+                double s = score.applyAsDouble(id);
+                if (s > 0) {
+                    heap.offer(id, s);
+                }
+            }
+            return heap;
+        }).reduce((a, b) -> {
+            a.addAll(b);
+            return a;
+        }).orElseGet(() -> new TopK(limit));
+
+        int[] rankedIds = new int[limit];
+        double[] scores = new double[limit];
+        int found = best.drain(rankedIds, scores);
+        List<RankedWord> ranked = new ArrayList<>(found);
+        for (int i = 0; i < found; i += 1) {
+            ranked.add(new RankedWord(store.word(rankedIds[i]), scores[i]));
+        }
+        return ranked;
+    }
+
+    /** Returns the IDs of the words matching any of PATTERNS, in increasing order. */
+    private int[] matchingIds(Collection<String> patterns) {
+        if (patterns.size() == 1) {
+            return matchingIds(patterns.iterator().next());
+        }
+        return patterns.stream().flatMapToInt(p -> Arrays.stream(matchingIds(p)))
+                .sorted().distinct().toArray();
+    }
+
+    /**
+     * Returns the weight of point P, or NaN if its year has no total. Unlike weight, never
+     * throws, for scans that should skip such years rather than fail.
+     */
+    private double weightOrNaN(long p) {
+        if (weights != null) {
+            return weights[(int) p];
+        }
+        return store.count(p) / totals.get(store.year(p));
+    }
+
+    /** Returns the sum of the weights of word ID from FROM to TO, both within MIN_YEAR to MAX_YEAR. */
+    private double rangeWeight(int id, int from, int to) {
+        double sum = 0;
+        long end = store.end(id);
+        for (long p = store.lowerBound(id, from); p < end && store.year(p) <= to; p += 1) {
+            double w = weightOrNaN(p);
+            if (!Double.isNaN(w)) {
+                sum += w;
+            }
+        }
+        return sum;
+    }
+
+    /** Returns the weight of word ID in YEAR, or 0 if there is none. */
+    private double yearWeight(int id, int year) {
+        if (year < MIN_YEAR || year > MAX_YEAR) {
+            return 0;
+        }
+        long p = store.lowerBound(id, year);
+        if (p >= store.end(id) || store.year(p) != year) {
+            return 0;
+        }
+        double w = weightOrNaN(p);
+        return Double.isNaN(w) ? 0 : w;
+    }
+
+    /** How many candidates per requested match similarWords takes from the decade index. */
+    private static final int SIMILAR_CANDIDATES = 20;
+
+    /**
+     * Returns the N words whose weight histories correlate best with that of WORD between
+     * STARTYEAR and ENDYEAR, best first, scored by Pearson correlation. Years without data
+     * count as weight 0. Only positively correlated words are returned, and none if WORD is
+     * not in the data files or its weight never changes over the range.
+     *
+     * For ranges of a few decades or more, candidates are first picked by correlating
+     * decade sums of the weights (see DecadeIndex), and only those are compared year by
+     * year. This is approximate: a word whose decades correlate poorly may be missed even
+     * though its years correlate well. Shorter ranges, and small vocabularies, are
+     * compared year by year in full.
+     */
+    public List<RankedWord> similarWords(String word, int startYear, int endYear, int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be positive, not " + n + ".");
+        }
+        if (startYear > endYear) {
+            throw new IllegalArgumentException("Start year cannot be after end year.");
+        }
+        int queryId = store.find(word);
+        int from = Math.max(startYear, MIN_YEAR);
+        int to = Math.min(endYear, MAX_YEAR);
+        if (queryId < 0 || to - from < 1) {
+            return List.of();
+        }
+
+        // The query's weights, centred; each other word is then one pass over its points.
+        int length = to - from + 1;
+        double[] q = new double[length];
+        for (long p = store.lowerBound(queryId, from); p < store.end(queryId) && store.year(p) <= to; p += 1) {
+            double w = weightOrNaN(p);
+            q[store.year(p) - from] = Double.isNaN(w) ? 0 : w;
+        }
+        double mean = Arrays.stream(q).sum() / length;
+        double qNorm = 0;
+        for (int i = 0; i < length; i += 1) {
+            q[i] -= mean;
+            qNorm += q[i] * q[i];
+        }
+        if (qNorm == 0) {
+            return List.of();
+        }
+        double norm = Math.sqrt(qNorm);
+
+        // No more words than the vocabulary can be returned or shortlisted, whatever N is.
+        n = Math.min(n, store.size());
+        int limit = (int) Math.min((long) SIMILAR_CANDIDATES * n, store.size());
+        int[] candidates = null;
+        if (length >= 30 && store.size() > limit) {
+            DecadeIndex index = decadeIndex;
+            if (index == null) {
+                index = DecadeIndex.of(store, this::weightOrNaN);
+                decadeIndex = index;
+            }
+            candidates = index.candidates(queryId, from, to, limit);
+        }
+        return rank(candidates, n, id -> id == queryId ? 0 : correlation(id, from, to, q, norm));
+    }
+
+    /**
+     * Returns the Pearson correlation of the weights of word ID from FROM to TO with Q, the
+     * centred weights of another word over the same years, whose norm is QNORM.
+     */
+    private double correlation(int id, int from, int to, double[] q, double qNorm) {
+        // Since Q sums to 0, only the years where word ID has data contribute to the
+        // covariance, and its mean enters only through its variance.
+        double sx = 0;
+        double sxx = 0;
+        double sxq = 0;
+        for (long p = store.lowerBound(id, from); p < store.end(id) && store.year(p) <= to; p += 1) {
+            double w = weightOrNaN(p);
+            if (!Double.isNaN(w)) {
+                sx += w;
+                sxx += w * w;
+                sxq += w * q[store.year(p) - from];
+            }
+        }
+        double variance = sxx - sx * sx / q.length;
+        if (variance <= 0) {
+            return 0;
+        }
+        return sxq / (Math.sqrt(variance) * qNorm);
     }
 }
@@ -0,0 +1,51 @@
+package ngrams;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The queries the server's handlers ask of word histories. An NGramMap answers
+ * them from the words it holds; a ShardedNGramMap asks the shards that hold them.
+ */
+public interface NGramQueries {
+
+    /** Returns the counts of WORD between STARTYEAR and ENDYEAR; see NGramMap.countHistory. */
+    TimeSeries countHistory(String word, int startYear, int endYear);
+
+    /** Returns the weights of WORD between STARTYEAR and ENDYEAR; see NGramMap.weightHistory. */
+    TimeSeries weightHistory(String word, int startYear, int endYear);
+
+    /**
+     * Returns the count history of every word of WORDS, in order, as countHistory gives
+     * them. Implementations that can look words up together should override this.
+     */
+    default List<TimeSeries> countHistories(List<String> words, int startYear, int endYear) {
+        List<TimeSeries> histories = new ArrayList<>(words.size());
+        for (String word : words) {
+            histories.add(countHistory(word, startYear, endYear));
+        }
+        return histories;
+    }
+
+    /** Like countHistories, but with the weight history of every word. */
+    default List<TimeSeries> weightHistories(List<String> words, int startYear, int endYear) {
+        List<TimeSeries> histories = new ArrayList<>(words.size());
+        for (String word : words) {
+            histories.add(weightHistory(word, startYear, endYear));
+        }
+        return histories;
+    }
+
+    /** Returns the summed weights of WORDS; see NGramMap.summedWeightHistory. */
+    TimeSeries summedWeightHistory(Collection<String> words, int startYear, int endYear);
+
+    /** Returns the summed weights of every query of QUERIES, in order. */
+    List<TimeSeries> batchSummedWeightHistory(List<BatchQuery> queries);
+
+    /** Returns the weight history of every word of every query of QUERIES, in order. */
+    List<List<TimeSeries>> batchWeightHistory(List<BatchQuery> queries);
+
+    /** Returns the K best words matching PATTERNS by RANKING; see NGramMap.topK. */
+    List<RankedWord> topK(Collection<String> patterns, int k, int startYear, int endYear, Ranking ranking);
+}
@@ -0,0 +1,217 @@
+package ngrams;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A SeriesStore made of a large, unchanging base store and a small patch of
+ * words whose histories have changed since the base was loaded. A word in the
+ * patch hides the same word in the base; a word only in the patch is new.
+ *
+ * Only the patch holds copies of points. The mapping between the merged word
+ * IDs and those of the base is kept as arrays the size of the patch, so that
+ * applying a delta costs time proportional to the words it touches rather
+ * than to the whole data set. Points of the base keep their indices; points
+ * of the patch come after them.
+ */
+final class OverlayStore extends SeriesStore {
+
+    private final SeriesStore base;
+    private final SeriesStore patch;
+    private final long basePoints;
+
+    /**
+     * Merged IDs of the words only in the patch, ascending, their patch IDs, and the
+     * number of base words that sort before each.
+     */
+    private final int[] added;
+    private final int[] addedPatch;
+    private final int[] addedAt;
+
+    /** Base IDs of the words hidden by the patch, ascending, and their patch IDs. */
+    private final int[] replaced;
+    private final int[] replacedPatch;
+
+    /** Merged ID of every word of the patch, indexed by patch ID. */
+    private final int[] patchToMerged;
+
+    private OverlayStore(SeriesStore base, SeriesStore patch) {
+        this.base = base;
+        this.patch = patch;
+        this.basePoints = base.points();
+
+        int n = patch.size();
+        int[] baseIds = new int[n];
+        int newWords = 0;
+        for (int j = 0; j < n; j += 1) {
+            baseIds[j] = base.find(patch.word(j));
+            if (baseIds[j] < 0) {
+                newWords += 1;
+            }
+        }
+
+        added = new int[newWords];
+        addedPatch = new int[newWords];
+        addedAt = new int[newWords];
+        replaced = new int[n - newWords];
+        replacedPatch = new int[n - newWords];
+        patchToMerged = new int[n];
+        int a = 0;
+        int r = 0;
+        for (int j = 0; j < n; j += 1) {
+            if (baseIds[j] >= 0) {
+                // A base word moves up by the number of new words sorted before it.
+                patchToMerged[j] = baseIds[j] + a;
+                replaced[r] = baseIds[j];
+                replacedPatch[r] = j;
+                r += 1;
+            } else {
+                // A new word lands after every base word that sorts before it.
+                addedAt[a] = insertionPoint(patch.word(j));
+                patchToMerged[j] = addedAt[a] + a;
+                added[a] = patchToMerged[j];
+                addedPatch[a] = j;
+                a += 1;
+            }
+        }
+    }
+
+    /** Returns the number of base words that sort before WORD. */
+    private int insertionPoint(String word) {
+        return base.firstAtLeast(word.getBytes(StandardCharsets.UTF_8), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns STORE with the histories in DELTA merged in. A point of DELTA replaces the
+     * point of the same word and year in STORE, if there is one. If STORE is itself an
+     * OverlayStore, its patch is folded into the new one, so overlays never nest.
+     */
+    static OverlayStore apply(SeriesStore store, SeriesStore delta) {
+        SeriesStore base = store;
+        SeriesStore oldPatch = null;
+        if (store instanceof OverlayStore) {
+            base = ((OverlayStore) store).base;
+            oldPatch = ((OverlayStore) store).patch;
+        }
+
+        ColumnStore.Builder builder = new ColumnStore.Builder();
+        if (oldPatch != null) {
+            for (int j = 0; j < oldPatch.size(); j += 1) {
+                copy(oldPatch, j, oldPatch.word(j), builder);
+            }
+        }
+        for (int d = 0; d < delta.size(); d += 1) {
+            String word = delta.word(d);
+            if (oldPatch == null || oldPatch.find(word) < 0) {
+                int id = base.find(word);
+                if (id >= 0) {
+                    copy(base, id, word, builder);
+                }
+            }
+            // Added last, so these win over points of the same year added above.
+            copy(delta, d, word, builder);
+        }
+        return new OverlayStore(base, builder.build());
+    }
+
+    private static void copy(SeriesStore from, int id, String word, ColumnStore.Builder to) {
+        for (long p = from.start(id); p < from.end(id); p += 1) {
+            to.add(word, from.year(p), from.count(p));
+        }
+    }
+
+    /** Returns the patch ID of merged word ID, or -1 if the word comes from the base. */
+    private int toPatch(int id) {
+        int k = Arrays.binarySearch(added, id);
+        if (k >= 0) {
+            return addedPatch[k];
+        }
+        int r = Arrays.binarySearch(replaced, toBase(id));
+        return r >= 0 ? replacedPatch[r] : -1;
+    }
+
+    /** Returns the base ID of merged word ID, which must not be a new word. */
+    private int toBase(int id) {
+        int before = -Arrays.binarySearch(added, id) - 1;
+        return id - before;
+    }
+
+    @Override
+    int size() {
+        return base.size() + added.length;
+    }
+
+    @Override
+    int find(String word) {
+        int j = patch.find(word);
+        if (j >= 0) {
+            return patchToMerged[j];
+        }
+        int id = base.find(word);
+        if (id < 0) {
+            return -1;
+        }
+        // Shift by the number of new words placed before base word ID.
+        int lo = 0;
+        int hi = addedAt.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (addedAt[mid] <= id) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return id + lo;
+    }
+
+    @Override
+    String word(int id) {
+        int j = toPatch(id);
+        return j >= 0 ? patch.word(j) : base.word(toBase(id));
+    }
+
+    @Override
+    int compareWord(int id, byte[] key, int limit) {
+        int j = toPatch(id);
+        return j >= 0 ? patch.compareWord(j, key, limit) : base.compareWord(toBase(id), key, limit);
+    }
+
+    @Override
+    long start(int id) {
+        int j = toPatch(id);
+        return j >= 0 ? basePoints + patch.start(j) : base.start(toBase(id));
+    }
+
+    @Override
+    long end(int id) {
+        int j = toPatch(id);
+        return j >= 0 ? basePoints + patch.end(j) : base.end(toBase(id));
+    }
+
+    @Override
+    int year(long point) {
+        return point < basePoints ? base.year(point) : patch.year(point - basePoints);
+    }
+
+    @Override
+    double count(long point) {
+        return point < basePoints ? base.count(point) : patch.count(point - basePoints);
+    }
+
+    @Override
+    double cumulative(long point) {
+        return point < basePoints ? base.cumulative(point) : patch.cumulative(point - basePoints);
+    }
+
+    /** Returns the number of points of the base, which keep their indices in this store. */
+    long basePoints() {
+        return basePoints;
+    }
+
+    /** Includes the points of base words hidden by the patch, which are never read. */
+    @Override
+    long points() {
+        return basePoints + patch.points();
+    }
+}
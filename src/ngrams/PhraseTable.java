@@ -0,0 +1,245 @@
+package ngrams;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The n-grams of a ColumnStore, for n from 1 to MAX_ORDER. An n-gram is stored
+ * as the IDs of its words in a WordTable, packed into one long key of
+ * BITS bits per word, first word highest, with 0 for the words a shorter
+ * n-gram lacks. Keys are sorted, so the ID of an n-gram is its position, and
+ * a KeyIndex finds the ID of a key in constant time.
+ *
+ * Since word IDs follow the code point order of the words, and 0 sorts before
+ * every word, the order of the keys is the code point order of the n-grams
+ * written with single spaces, as the contract of SeriesStore requires (words
+ * never contain characters below the space, as those would be separators).
+ * An n-gram costs its 8-byte key and 5 to 11 bytes of hash table, plus the
+ * bytes of its words once in the WordTable, however many n-grams share them.
+ */
+final class PhraseTable extends Lexicon {
+
+    /** The longest n-grams stored. */
+    static final int MAX_ORDER = 3;
+
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1;
+
+    /** The most distinct words the n-grams of one table may have. */
+    static final int MAX_WORDS = (int) MASK;
+
+    private final WordTable words;
+    private final long[] keys;
+    private final KeyIndex index;
+
+    private PhraseTable(WordTable words, long[] keys) {
+        this.words = words;
+        this.keys = keys;
+        this.index = KeyIndex.of(keys);
+    }
+
+    @Override
+    int size() {
+        return keys.length;
+    }
+
+    @Override
+    String word(int id) {
+        long key = keys[id];
+        StringBuilder phrase = new StringBuilder();
+        for (int i = MAX_ORDER - 1; i >= 0; i -= 1) {
+            int word = (int) ((key >>> (i * BITS)) & MASK) - 1;
+            if (word >= 0) {
+                if (phrase.length() > 0) {
+                    phrase.append(' ');
+                }
+                phrase.append(words.word(word));
+            }
+        }
+        return phrase.toString();
+    }
+
+    /** Returns the ID of PHRASE, whose words may be separated by any number of spaces, or -1. */
+    @Override
+    int find(String phrase) {
+        List<String> split = split(phrase);
+        if (split.isEmpty() || split.size() > MAX_ORDER) {
+            return -1;
+        }
+        long key = 0;
+        for (int i = 0; i < MAX_ORDER; i += 1) {
+            int word = 0;
+            if (i < split.size()) {
+                word = words.find(split.get(i)) + 1;
+                if (word == 0) {
+                    return -1;
+                }
+            }
+            key = key << BITS | word;
+        }
+        return index.find(key);
+    }
+
+    /** Returns the words of PHRASE, which are separated by one or more spaces. */
+    static List<String> split(String phrase) {
+        List<String> split = new ArrayList<>(MAX_ORDER);
+        int from = 0;
+        while (from < phrase.length()) {
+            int to = phrase.indexOf(' ', from);
+            if (to < 0) {
+                to = phrase.length();
+            }
+            if (to > from) {
+                split.add(phrase.substring(from, to));
+            }
+            from = to + 1;
+        }
+        return split;
+    }
+
+    /**
+     * Accumulates (n-gram, year, count) rows in any order and packs them into a
+     * ColumnStore over a PhraseTable. If the same n-gram and year are added twice,
+     * the last count wins, as in ColumnStore.Builder.
+     *
+     * Words get provisional IDs in the order they are first seen, and n-grams
+     * provisional keys made of those, so that no String is kept per n-gram while
+     * loading; build renumbers both into code point order.
+     */
+    static final class Builder implements RowSink {
+        private final Map<String, Integer> wordIds = new HashMap<>();
+        private final List<String> wordList = new ArrayList<>();
+        private final KeyIndex phrases = new KeyIndex(1 << 10);
+
+        /** The provisional n-gram ID, year and count of every point, in the order added. */
+        private int[] owners = new int[1 << 10];
+        private short[] years = new short[1 << 10];
+        private double[] counts = new double[1 << 10];
+        private int points;
+
+        /** Rows of one n-gram are usually adjacent, so remember the last one seen. */
+        private String lastPhrase;
+        private int lastId;
+
+        @Override
+        public void add(String phrase, int year, double count) {
+            if (year < Short.MIN_VALUE || year > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Year " + year + " is out of range for n-gram " + phrase);
+            }
+            if (!phrase.equals(lastPhrase)) {
+                lastId = phrases.add(provisionalKey(phrase));
+                lastPhrase = phrase;
+            }
+            if (points == owners.length) {
+                int capacity = (int) Math.min((long) points * 2, Integer.MAX_VALUE - 8);
+                if (capacity == points) {
+                    throw new IllegalArgumentException("Too many points for one store.");
+                }
+                owners = Arrays.copyOf(owners, capacity);
+                years = Arrays.copyOf(years, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+            owners[points] = lastId;
+            years[points] = (short) year;
+            counts[points] = count;
+            points += 1;
+        }
+
+        private long provisionalKey(String phrase) {
+            List<String> split = split(phrase);
+            if (split.isEmpty() || split.size() > MAX_ORDER) {
+                throw new IllegalArgumentException("\"" + phrase + "\" has " + split.size()
+                        + " words; only 1- to " + MAX_ORDER + "-grams are supported.");
+            }
+            long key = 0;
+            for (int i = 0; i < MAX_ORDER; i += 1) {
+                int word = 0;
+                if (i < split.size()) {
+                    Integer id = wordIds.get(split.get(i));
+                    if (id == null) {
+                        if (wordList.size() == MAX_WORDS) {
+                            throw new IllegalArgumentException("More than " + MAX_WORDS
+                                    + " distinct words in the n-grams of one store.");
+                        }
+                        id = wordList.size();
+                        wordIds.put(split.get(i), id);
+                        wordList.add(split.get(i));
+                    }
+                    word = id + 1;
+                }
+                key = key << BITS | word;
+            }
+            return key;
+        }
+
+        ColumnStore build() {
+            // Renumber the words in code point order, and rewrite every key with the new numbers.
+            Integer[] order = new Integer[wordList.size()];
+            for (int i = 0; i < order.length; i += 1) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> SeriesStore.compareCodePoints(wordList.get(a), wordList.get(b)));
+            String[] sortedWords = new String[order.length];
+            int[] renumbered = new int[order.length + 1];
+            for (int i = 0; i < order.length; i += 1) {
+                sortedWords[i] = wordList.get(order[i]);
+                renumbered[order[i] + 1] = i + 1;
+            }
+            int n = phrases.size();
+            long[] keys = new long[n];
+            for (int p = 0; p < n; p += 1) {
+                long key = phrases.key(p);
+                long rewritten = 0;
+                for (int i = MAX_ORDER - 1; i >= 0; i -= 1) {
+                    rewritten = rewritten << BITS | renumbered[(int) ((key >>> (i * BITS)) & MASK)];
+                }
+                keys[p] = rewritten;
+            }
+            long[] sortedKeys = keys.clone();
+            Arrays.sort(sortedKeys);
+            PhraseTable table = new PhraseTable(WordTable.of(sortedWords), sortedKeys);
+
+            // Group the points by final ID with a counting sort, which keeps them in the
+            // order added, then sort each group by year through a Run.
+            int[] ids = new int[n];
+            int[] starts = new int[n + 1];
+            for (int p = 0; p < n; p += 1) {
+                ids[p] = table.index.find(keys[p]);
+            }
+            for (int i = 0; i < points; i += 1) {
+                starts[ids[owners[i]] + 1] += 1;
+            }
+            for (int id = 0; id < n; id += 1) {
+                starts[id + 1] += starts[id];
+            }
+            int[] grouped = new int[points];
+            int[] next = Arrays.copyOf(starts, n);
+            for (int i = 0; i < points; i += 1) {
+                grouped[next[ids[owners[i]]]++] = i;
+            }
+
+            int[] offsets = new int[n + 1];
+            short[] ys = new short[points];
+            double[] cs = new double[points];
+            ColumnStore.Run run = new ColumnStore.Run();
+            int at = 0;
+            for (int id = 0; id < n; id += 1) {
+                offsets[id] = at;
+                run.clear();
+                for (int g = starts[id]; g < starts[id + 1]; g += 1) {
+                    run.add(years[grouped[g]], counts[grouped[g]]);
+                }
+                at = run.copyTo(ys, cs, at);
+            }
+            offsets[n] = at;
+            if (at < points) {
+                ys = Arrays.copyOf(ys, at);
+                cs = Arrays.copyOf(cs, at);
+            }
+            return new ColumnStore(table, offsets, ys, cs);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package ngrams;
+
+/**
+ * A word and its score, as returned by NGramMap.topK.
+ */
+public record RankedWord(String word, double score) {
+}
@@ -0,0 +1,15 @@
+package ngrams;
+
+/**
+ * What NGramMap.topK ranks words by, over a range of years.
+ */
+public enum Ranking {
+    /** The sum of the word's weights over the range. */
+    WEIGHT,
+
+    /**
+     * The weight of the word in the last year of the range minus its weight in the first
+     * year, where a year without data counts as 0.
+     */
+    RISE
+}
@@ -0,0 +1,8 @@
+package ngrams;
+
+/**
+ * Receives the (word, year, count) rows of a words file as they are parsed.
+ */
+interface RowSink {
+    void add(String word, int year, double count);
+}
@@ -0,0 +1,225 @@
+package ngrams;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes the points of a word as a stream of bits, in the manner of the
+ * Gorilla time series database, and decodes them again one point at a time.
+ *
+ * The first point is stored as a 16-bit year and the 64 bits of its count.
+ * Every later point stores its year as a delta: a single 0 bit if the delta is
+ * the same as the one before it (1 before the second point), which it is for
+ * runs of consecutive years, or a 1 bit and 16 bits of delta. Its count is
+ * XORed with the previous count. Counts that change slowly share their sign,
+ * exponent and high mantissa bits, and integral counts have trailing zeros,
+ * so only a short run of meaningful bits in the middle differs: a 0 bit if
+ * the count is unchanged; 10 and the meaningful bits if they fit in the
+ * previous run; or 11, 5 bits of leading zeros, 6 bits of length and the bits.
+ */
+final class SeriesCodec {
+
+    private SeriesCodec() {
+    }
+
+    /** Bits beyond the end of the data that a Decoder may read; Encoder.toByteArray adds them. */
+    static final int PADDING = Long.BYTES;
+
+    /** Writes the points of words one after another, each starting on a byte boundary. */
+    static final class Encoder {
+        private byte[] bytes = new byte[1 << 12];
+        private int size;
+
+        /** Bits not yet written to BYTES, in the high USED bits. */
+        private long pending;
+        private int used;
+
+        /** Returns the index of the byte the next word will start at. */
+        int position() {
+            return size;
+        }
+
+        /**
+         * Writes the points of a word, YEARS[FROM] to YEARS[TO - 1] with their COUNTS, which
+         * must be sorted by year without duplicates, starting at position().
+         */
+        void encode(short[] years, double[] counts, int from, int to) {
+            if (from >= to) {
+                return;
+            }
+            write(years[from], 16);
+            long previous = Double.doubleToRawLongBits(counts[from]);
+            write(previous, 64);
+            int delta = 1;
+            int lead = -1;
+            int trail = 0;
+            for (int i = from + 1; i < to; i += 1) {
+                int d = years[i] - years[i - 1];
+                if (d == delta) {
+                    write(0, 1);
+                } else {
+                    write(1, 1);
+                    write(d, 16);
+                    delta = d;
+                }
+
+                long bits = Double.doubleToRawLongBits(counts[i]);
+                long xor = bits ^ previous;
+                previous = bits;
+                if (xor == 0) {
+                    write(0, 1);
+                    continue;
+                }
+                int l = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                int t = Long.numberOfTrailingZeros(xor);
+                if (lead >= 0 && l >= lead && t >= trail) {
+                    write(0b10, 2);
+                    write(xor >>> trail, 64 - lead - trail);
+                } else {
+                    int length = 64 - l - t;
+                    write(0b11, 2);
+                    write(l, 5);
+                    write(length - 1, 6);
+                    write(xor >>> t, length);
+                    lead = l;
+                    trail = t;
+                }
+            }
+            align();
+        }
+
+        /** Writes the low N bits of VALUE, high bit first. */
+        private void write(long value, int n) {
+            if (n < 64) {
+                value &= (1L << n) - 1;
+            }
+            int free = 64 - used;
+            if (n <= free) {
+                pending |= n == 64 ? value : value << (free - n);
+                used += n;
+                if (used == 64) {
+                    flush(8);
+                }
+            } else {
+                int rest = n - free;
+                pending |= value >>> rest;
+                used = 64;
+                flush(8);
+                pending = value << (64 - rest);
+                used = rest;
+            }
+        }
+
+        /** Writes out the first BYTECOUNT bytes of PENDING and clears it. */
+        private void flush(int byteCount) {
+            if (size + byteCount > bytes.length) {
+                if (bytes.length >= Integer.MAX_VALUE - 16) {
+                    throw new IllegalArgumentException("Too many bytes of points for one store.");
+                }
+                bytes = Arrays.copyOf(bytes, (int) Math.min(2L * bytes.length, Integer.MAX_VALUE - 16));
+            }
+            for (int i = 0; i < byteCount; i += 1) {
+                bytes[size++] = (byte) (pending >>> (56 - 8 * i));
+            }
+            pending = 0;
+            used = 0;
+        }
+
+        /** Pads the current word to a whole number of bytes. */
+        private void align() {
+            if (used > 0) {
+                flush((used + 7) / 8);
+            }
+        }
+
+        /** Returns everything written, followed by PADDING zero bytes. */
+        byte[] toByteArray() {
+            align();
+            return Arrays.copyOf(bytes, size + PADDING);
+        }
+    }
+
+    /**
+     * Reads the points of one word in order, decoding each as next() reaches it, without
+     * materializing the rest. DATA is only read with absolute gets, so one buffer may be
+     * shared by decoders on any number of threads.
+     */
+    static final class Decoder {
+        private final ByteBuffer data;
+        private long bit;
+        private int remaining;
+        private boolean started;
+
+        private int year;
+        private long bits;
+        private int delta = 1;
+        private int lead;
+        private int trail;
+
+        /** Creates a decoder of the POINTS points of the word that starts at byte START of DATA. */
+        Decoder(ByteBuffer data, int start, int points) {
+            this.data = data;
+            this.bit = (long) start * 8;
+            this.remaining = points;
+        }
+
+        /** Moves to the next point, returning false if there is none. */
+        boolean next() {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining -= 1;
+            if (!started) {
+                started = true;
+                year = (short) read(16);
+                bits = read(32) << 32 | read(32);
+                return true;
+            }
+            // Read the year's flag and the count's flags together, since the year usually
+            // follows on from the one before.
+            int flags = (int) peek(3);
+            bit += 1;
+            if (flags >= 0b100) {
+                delta = (int) read(16);
+                flags = (int) peek(2);
+            }
+            year += delta;
+
+            if (flags < 0b10) {
+                bit += 1;
+                return true;
+            }
+            bit += 2;
+            if ((flags & 1) != 0) {
+                lead = (int) read(5);
+                int length = (int) read(6) + 1;
+                trail = 64 - lead - length;
+            }
+            int length = 64 - lead - trail;
+            long xor = length > 32 ? read(length - 32) << 32 | read(32) : read(length);
+            bits ^= xor << trail;
+            return true;
+        }
+
+        int year() {
+            return year;
+        }
+
+        double count() {
+            return Double.longBitsToDouble(bits);
+        }
+
+        /** Returns the next N bits, for N from 1 to 32, high bit first, without consuming them. */
+        private long peek(int n) {
+            long window = data.getLong((int) (bit >>> 3));
+            return (window << (bit & 7)) >>> (64 - n);
+        }
+
+        /** Reads the next N bits, for N from 1 to 32, high bit first. */
+        private long read(int n) {
+            long value = peek(n);
+            bit += n;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package ngrams;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Read-only storage for the word histories of an NGramMap.
+ *
+ * Words have dense IDs from 0 to size() - 1, assigned in code point order of
+ * the words (which is also the unsigned byte order of their UTF-8 encodings).
+ * The points of a word are addressed by a long index between start(id)
+ * (inclusive) and end(id) (exclusive), and are sorted by year. Alongside each
+ * count, a store keeps the running total of the counts of that word, so that the
+ * sum over any range of years takes two lookups rather than a scan.
+ */
+abstract class SeriesStore {
+
+    /** Returns the number of distinct words. */
+    abstract int size();
+
+    /** Returns the ID of WORD, or -1 if WORD is not stored. */
+    abstract int find(String word);
+
+    /** Returns the word with the given ID. */
+    abstract String word(int id);
+
+    /** Returns the index of the first point of word ID. */
+    abstract long start(int id);
+
+    /** Returns the index one past the last point of word ID. */
+    abstract long end(int id);
+
+    abstract int year(long point);
+
+    abstract double count(long point);
+
+    /**
+     * Returns the sum of the counts of the word that owns POINT, from its first point
+     * up to and including POINT.
+     */
+    abstract double cumulative(long point);
+
+    /** Returns the total number of (year, count) points. */
+    abstract long points();
+
+    /**
+     * Compares the UTF-8 encoding of word ID, cut to its first LIMIT bytes, with KEY as
+     * unsigned byte strings. Stores that keep words encoded should override this to
+     * avoid decoding them.
+     */
+    int compareWord(int id, byte[] key, int limit) {
+        byte[] word = word(id).getBytes(StandardCharsets.UTF_8);
+        return Arrays.compareUnsigned(word, 0, Math.min(word.length, limit), key, 0, key.length);
+    }
+
+    /** Returns the first ID whose word, cut to LIMIT bytes, is at least KEY, or size(). */
+    int firstAtLeast(byte[] key, int limit) {
+        int lo = 0;
+        int hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareWord(mid, key, limit) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the first ID whose word, cut to LIMIT bytes, is greater than KEY, or size(). */
+    int firstAbove(byte[] key, int limit) {
+        int lo = 0;
+        int hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareWord(mid, key, limit) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the IDs of the words starting with PREFIX, which are contiguous, as
+     * {first, end} with END exclusive.
+     */
+    int[] prefixRange(String prefix) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        return new int[] {firstAtLeast(key, Integer.MAX_VALUE), firstAbove(key, key.length)};
+    }
+
+    /**
+     * Returns the index of the first point of word ID whose year is at least YEAR,
+     * or end(ID) if there is no such point.
+     */
+    long lowerBound(int id, int year) {
+        long lo = start(id);
+        long hi = end(id);
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (year(mid) < year) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the sum of the counts of word ID between STARTYEAR and ENDYEAR, inclusive,
+     * using two binary searches and the running totals.
+     */
+    double rangeSum(int id, int startYear, int endYear) {
+        long lo = lowerBound(id, startYear);
+        long hi = endYear == Integer.MAX_VALUE ? end(id) : lowerBound(id, endYear + 1);
+        if (hi <= lo) {
+            return 0;
+        }
+        return cumulative(hi - 1) - (lo > start(id) ? cumulative(lo - 1) : 0);
+    }
+
+    /** Returns the number of points of word ID between STARTYEAR and ENDYEAR, inclusive. */
+    long rangeCount(int id, int startYear, int endYear) {
+        long lo = lowerBound(id, startYear);
+        long hi = endYear == Integer.MAX_VALUE ? end(id) : lowerBound(id, endYear + 1);
+        return Math.max(0, hi - lo);
+    }
+
+    /**
+     * Adds the counts of word ID between STARTYEAR and ENDYEAR, inclusive, to SUM. Stores
+     * that keep points encoded should override this to decode them in one pass.
+     */
+    void addCounts(int id, int startYear, int endYear, DenseTimeSeries sum) {
+        for (long p = lowerBound(id, startYear); p < end(id) && year(p) <= endYear; p += 1) {
+            sum.add(year(p), count(p));
+        }
+    }
+
+    /** Compares A and B by code point, which matches the byte order of their UTF-8 encodings. */
+    static int compareCodePoints(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Boolean.compare(i < a.length(), j < b.length());
+    }
+}
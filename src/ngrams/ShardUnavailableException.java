@@ -0,0 +1,13 @@
+package ngrams;
+
+/**
+ * Thrown by a ShardedNGramMap when a shard fails to answer a query in time,
+ * or answers with an error.
+ */
+public class ShardUnavailableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ShardUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,360 @@
+package ngrams;
+
+import com.google.gson.Gson;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Answers NGramQueries over words spread across several shards, each an
+ * NGramMap of the words that NGramMap.shardOf assigns to it, usually in another
+ * process. This map holds no words itself. Every shard has all of the yearly
+ * totals, so weights come back from the shards ready to use.
+ *
+ * A query is split by shard, and sent to every shard involved at once; the
+ * partial results are merged as they come back. Queries therefore take about
+ * as long as the slowest shard, and the memory needed to hold the words scales
+ * with the number of shards. A shard that does not answer within the timeout
+ * fails the query with a ShardUnavailableException.
+ *
+ * Shards answer requests in a small JSON protocol; see answer, which a shard
+ * process serves over HTTP.
+ */
+public class ShardedNGramMap implements NGramQueries {
+
+    /** How long a shard has to answer, unless told otherwise. */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(5);
+
+    private static final Gson gson = new Gson();
+
+    /** Sends a request to one shard, and completes with its answer. */
+    public interface Shard {
+        CompletableFuture<String> send(String request);
+    }
+
+    /** A request to a shard, as sent by this map and read by answer. */
+    private static class Request {
+        String op;
+        List<String> words;
+        int startYear;
+        int endYear;
+        int k;
+    }
+
+    /** A history in a shard's answer. */
+    private static class Series {
+        String word;
+        int[] years;
+        double[] values;
+    }
+
+    private final List<Shard> shards;
+    private final Duration timeout;
+
+    /** Creates a map over SHARDS, in shard order, that waits DEFAULT_TIMEOUT for each answer. */
+    public ShardedNGramMap(List<Shard> shards) {
+        this(shards, DEFAULT_TIMEOUT);
+    }
+
+    /** Creates a map over SHARDS, in shard order, that waits at most TIMEOUT for each answer. */
+    public ShardedNGramMap(List<Shard> shards, Duration timeout) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("A sharded map needs at least one shard.");
+        }
+        this.shards = List.copyOf(shards);
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns a Shard that POSTs requests to URI, as served by a shard process, and
+     * gives up on any request not answered within TIMEOUT.
+     */
+    public static Shard http(URI uri, Duration timeout) {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(timeout).build();
+        return request -> {
+            HttpRequest post = HttpRequest.newBuilder(uri)
+                    .timeout(timeout)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(request))
+                    .build();
+            return client.sendAsync(post, HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+                if (response.statusCode() != 200) {
+                    throw new IllegalStateException("Shard " + uri + " answered " + response.statusCode()
+                            + ": " + response.body());
+                }
+                return response.body();
+            });
+        };
+    }
+
+    /** Returns a Shard that answers from MAP in this process, e.g. for tests. */
+    public static Shard local(NGramMap map) {
+        return request -> {
+            try {
+                return CompletableFuture.completedFuture(answer(map, request));
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        };
+    }
+
+    /**
+     * Answers REQUEST, a request from a ShardedNGramMap, from MAP, the shard's own words.
+     * This is what a shard process serves.
+     */
+    public static String answer(NGramMap map, String request) {
+        Request r = gson.fromJson(request, Request.class);
+        if (r == null || r.op == null || r.words == null) {
+            throw new IllegalArgumentException("A shard request needs an op and a list of words.");
+        }
+        switch (r.op) {
+            case "counts":
+            case "weights":
+                List<Series> histories = new ArrayList<>();
+                for (String word : r.words) {
+                    histories.add(series(word, r.op.equals("counts")
+                            ? map.countHistory(word, r.startYear, r.endYear)
+                            : map.weightHistory(word, r.startYear, r.endYear)));
+                }
+                return gson.toJson(histories);
+            case "summed":
+                return gson.toJson(series(null, map.summedWeightHistory(r.words, r.startYear, r.endYear)));
+            case "topk":
+                return gson.toJson(map.topK(r.words, r.k, r.startYear, r.endYear, Ranking.WEIGHT));
+            case "rise":
+                return gson.toJson(map.topK(r.words, r.k, r.startYear, r.endYear, Ranking.RISE));
+            default:
+                throw new IllegalArgumentException("No such shard operation: " + r.op);
+        }
+    }
+
+    private static Series series(String word, TimeSeries ts) {
+        Series s = new Series();
+        s.word = word;
+        s.years = new int[ts.size()];
+        s.values = new double[ts.size()];
+        for (int i = 0; i < ts.size(); i += 1) {
+            s.years[i] = ts.yearAt(i);
+            s.values[i] = ts.valueAt(i);
+        }
+        return s;
+    }
+
+    private static TimeSeries toTimeSeries(Series s) {
+        TimeSeries ts = new TimeSeries();
+        for (int i = 0; i < s.years.length; i += 1) {
+            ts.put(s.years[i], s.values[i]);
+        }
+        return ts;
+    }
+
+    private static String request(String op, Collection<String> words, int startYear, int endYear, int k) {
+        Request r = new Request();
+        r.op = op;
+        r.words = List.copyOf(words);
+        r.startYear = startYear;
+        r.endYear = endYear;
+        r.k = k;
+        return gson.toJson(r);
+    }
+
+    /**
+     * Waits for FUTURE, the answer of shard SHARD, for at most the timeout. Failures,
+     * including the timeout, become a ShardUnavailableException; errors the shard
+     * raised in answering, such as a bad argument, are rethrown as they are.
+     */
+    private String await(int shard, CompletableFuture<String> future) {
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new ShardUnavailableException("Shard " + shard + " did not answer within "
+                    + timeout.toMillis() + " ms.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalArgumentException cause) {
+                throw cause;
+            }
+            throw new ShardUnavailableException("Shard " + shard + " failed: " + e.getCause().getMessage(),
+                    e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ShardUnavailableException("Interrupted while waiting for shard " + shard + ".", e);
+        }
+    }
+
+    /**
+     * Splits WORDS by the shard they belong to. Duplicates are dropped unless KEEPDUPLICATES,
+     * which summed weights need, since NGramMap adds a repeated word in once per repeat.
+     */
+    private List<List<String>> byShard(Collection<String> words, boolean keepDuplicates) {
+        List<List<String>> split = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i += 1) {
+            split.add(new ArrayList<>());
+        }
+        for (String word : words) {
+            List<String> part = split.get(shardOf(word));
+            if (keepDuplicates || !part.contains(word)) {
+                part.add(word);
+            }
+        }
+        return split;
+    }
+
+    private int shardOf(String word) {
+        return NGramMap.shardOf(word, shards.size());
+    }
+
+    private static void checkYears(int startYear, int endYear) {
+        if (startYear > endYear) {
+            throw new IllegalArgumentException("Start year cannot be after end year.");
+        }
+    }
+
+    /**
+     * Sends OP for the words of WORDS to the shards that have them, one request per
+     * shard, without waiting for the answers. The answer of shard i is at index i, or
+     * null if the shard has none of the words.
+     */
+    private List<CompletableFuture<String>> scatter(String op, Collection<String> words,
+                                                    int startYear, int endYear) {
+        List<List<String>> split = byShard(words, op.equals("summed"));
+        List<CompletableFuture<String>> answers = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i += 1) {
+            answers.add(split.get(i).isEmpty() ? null
+                    : shards.get(i).send(request(op, split.get(i), startYear, endYear, 0)));
+        }
+        return answers;
+    }
+
+    /** Waits for the histories ANSWERS, from scatter, and returns those of WORDS in order. */
+    private List<TimeSeries> gatherHistories(List<CompletableFuture<String>> answers, List<String> words) {
+        Map<String, TimeSeries> byWord = new HashMap<>();
+        for (int i = 0; i < answers.size(); i += 1) {
+            if (answers.get(i) != null) {
+                for (Series s : gson.fromJson(await(i, answers.get(i)), Series[].class)) {
+                    byWord.put(s.word, toTimeSeries(s));
+                }
+            }
+        }
+        List<TimeSeries> histories = new ArrayList<>(words.size());
+        Set<TimeSeries> used = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (String word : words) {
+            TimeSeries ts = byWord.get(word);
+            // A repeated word gets a copy of its own, since TimeSeries can be changed.
+            histories.add(used.add(ts) ? ts : new TimeSeries(ts, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        }
+        return histories;
+    }
+
+    /** Waits for the summed weights ANSWERS, from scatter, and adds them up. */
+    private TimeSeries gatherSum(List<CompletableFuture<String>> answers) {
+        DenseTimeSeries sum = new DenseTimeSeries();
+        for (int i = 0; i < answers.size(); i += 1) {
+            if (answers.get(i) != null) {
+                Series s = gson.fromJson(await(i, answers.get(i)), Series.class);
+                for (int j = 0; j < s.years.length; j += 1) {
+                    sum.add(s.years[j], s.values[j]);
+                }
+            }
+        }
+        return sum.toTimeSeries();
+    }
+
+    @Override
+    public TimeSeries countHistory(String word, int startYear, int endYear) {
+        return countHistories(List.of(word), startYear, endYear).get(0);
+    }
+
+    @Override
+    public TimeSeries weightHistory(String word, int startYear, int endYear) {
+        return weightHistories(List.of(word), startYear, endYear).get(0);
+    }
+
+    @Override
+    public List<TimeSeries> countHistories(List<String> words, int startYear, int endYear) {
+        checkYears(startYear, endYear);
+        return gatherHistories(scatter("counts", words, startYear, endYear), words);
+    }
+
+    @Override
+    public List<TimeSeries> weightHistories(List<String> words, int startYear, int endYear) {
+        checkYears(startYear, endYear);
+        return gatherHistories(scatter("weights", words, startYear, endYear), words);
+    }
+
+    @Override
+    public TimeSeries summedWeightHistory(Collection<String> words, int startYear, int endYear) {
+        checkYears(startYear, endYear);
+        return gatherSum(scatter("summed", words, startYear, endYear));
+    }
+
+    /** Sends every query of QUERIES to its shards before waiting for any answer. */
+    @Override
+    public List<TimeSeries> batchSummedWeightHistory(List<BatchQuery> queries) {
+        List<List<CompletableFuture<String>>> pending = new ArrayList<>(queries.size());
+        for (BatchQuery q : queries) {
+            pending.add(scatter("summed", q.words(), q.startYear(), q.endYear()));
+        }
+        List<TimeSeries> results = new ArrayList<>(queries.size());
+        for (List<CompletableFuture<String>> answers : pending) {
+            results.add(gatherSum(answers));
+        }
+        return results;
+    }
+
+    /** Sends every query of QUERIES to its shards before waiting for any answer. */
+    @Override
+    public List<List<TimeSeries>> batchWeightHistory(List<BatchQuery> queries) {
+        List<List<CompletableFuture<String>>> pending = new ArrayList<>(queries.size());
+        for (BatchQuery q : queries) {
+            pending.add(scatter("weights", q.words(), q.startYear(), q.endYear()));
+        }
+        List<List<TimeSeries>> results = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i += 1) {
+            results.add(gatherHistories(pending.get(i), queries.get(i).words()));
+        }
+        return results;
+    }
+
+    /**
+     * Asks every shard for its own top K of the words matching PATTERNS, at once, and
+     * merges them: the overall top K are among the shards' top Ks.
+     */
+    @Override
+    public List<RankedWord> topK(Collection<String> patterns, int k, int startYear, int endYear,
+                                 Ranking ranking) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive, not " + k + ".");
+        }
+        checkYears(startYear, endYear);
+        String request = request(ranking == Ranking.WEIGHT ? "topk" : "rise", patterns, startYear, endYear, k);
+        List<CompletableFuture<String>> answers = new ArrayList<>();
+        for (Shard shard : shards) {
+            answers.add(shard.send(request));
+        }
+        List<RankedWord> merged = new ArrayList<>();
+        for (int i = 0; i < answers.size(); i += 1) {
+            merged.addAll(List.of(gson.fromJson(await(i, answers.get(i)), RankedWord[].class)));
+        }
+        // Best first, and between equal scores the word that comes first, as NGramMap does.
+        merged.sort((a, b) -> a.score() != b.score()
+                ? Double.compare(b.score(), a.score())
+                : SeriesStore.compareCodePoints(a.word(), b.word()));
+        return List.copyOf(merged.subList(0, Math.min(k, merged.size())));
+    }
+}
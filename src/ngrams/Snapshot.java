@@ -0,0 +1,460 @@
+package ngrams;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static ngrams.TimeSeries.MAX_YEAR;
+import static ngrams.TimeSeries.MIN_YEAR;
+
+/**
+ * Reads and writes the binary snapshot format of an NGramMap.
+ *
+ * A snapshot is a little-endian file laid out as follows, with every section
+ * padded to a multiple of 8 bytes:
+ *
+ *   header     64 bytes: magic "NGRM", version, word count, flags,
+ *              point count, string table size, reserved
+ *   totals     (MAX_YEAR - MIN_YEAR + 1) doubles, NaN for missing years
+ *   strings    (words + 1) longs of offsets into the string bytes
+ *   starts     words longs, the first point index of each word
+ *   ends       words longs, one past the last point index of each word
+ *   bytes      the UTF-8 bytes of every word, in code point order
+ *   years      points shorts
+ *   counts     points doubles
+ *   cumulative points doubles, the running total of each word's counts
+ *   checksum   one long, the CRC-32 of everything before it
+ *
+ * Because words are stored sorted, a mapped snapshot can answer lookups by
+ * binary search without building any on-heap index. The points of a word are
+ * contiguous, but words need not appear in the point columns in ID order:
+ * convert lays them out in the order of the words file.
+ */
+final class Snapshot {
+
+    /** "NGRM" when read as little-endian bytes. */
+    static final int MAGIC = 0x4D52474E;
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 64;
+    static final int TOTALS_LENGTH = MAX_YEAR - MIN_YEAR + 1;
+
+    private Snapshot() {
+    }
+
+    /** Rounds N up to a multiple of 8. */
+    static long pad(long n) {
+        return (n + 7) & ~7L;
+    }
+
+    /**
+     * Writes STORE and TOTALS to FILENAME. The snapshot is written to a temporary file
+     * first and moved into place, so a reader never sees a half-written snapshot.
+     */
+    static void write(SeriesStore store, double[] totals, String filename) {
+        Path target = Paths.get(filename).toAbsolutePath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        int n = store.size();
+        byte[][] encoded = new byte[n][];
+        long stringBytes = 0;
+        for (int id = 0; id < n; id += 1) {
+            encoded[id] = store.word(id).getBytes(StandardCharsets.UTF_8);
+            stringBytes += encoded[id].length;
+        }
+        long points = 0;
+        for (int id = 0; id < n; id += 1) {
+            points += store.end(id) - store.start(id);
+        }
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Output out = new Output(channel);
+            writeHeader(out, n, points, stringBytes, totals);
+
+            long offset = 0;
+            out.putLong(offset);
+            for (int id = 0; id < n; id += 1) {
+                offset += encoded[id].length;
+                out.putLong(offset);
+            }
+
+            // Points are rewritten contiguously in ID order, so starts and ends
+            // form a CSR layout even if STORE interleaves its words.
+            long at = 0;
+            for (int id = 0; id < n; id += 1) {
+                out.putLong(at);
+                at += store.end(id) - store.start(id);
+            }
+            at = 0;
+            for (int id = 0; id < n; id += 1) {
+                at += store.end(id) - store.start(id);
+                out.putLong(at);
+            }
+
+            for (int id = 0; id < n; id += 1) {
+                out.put(encoded[id]);
+            }
+            out.align();
+
+            for (int id = 0; id < n; id += 1) {
+                for (long p = store.start(id); p < store.end(id); p += 1) {
+                    out.putShort((short) store.year(p));
+                }
+            }
+            out.align();
+
+            for (int id = 0; id < n; id += 1) {
+                for (long p = store.start(id); p < store.end(id); p += 1) {
+                    out.putDouble(store.count(p));
+                }
+            }
+            for (int id = 0; id < n; id += 1) {
+                for (long p = store.start(id); p < store.end(id); p += 1) {
+                    out.putDouble(store.cumulative(p));
+                }
+            }
+            out.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write snapshot " + filename, e);
+        }
+
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not move snapshot into " + filename, e);
+        }
+    }
+
+    /**
+     * Converts the words file WORDSFILENAME and the yearly TOTALS straight into a snapshot
+     * at FILENAME without loading the points onto the heap. Years, counts and running totals
+     * are streamed into temporary column files as rows are parsed; only the vocabulary is held in
+     * memory. The rows of each word must be adjacent in the words file, as they are in
+     * the Google NGrams exports; within a word, years may come in any order.
+     */
+    static void convert(String wordsFilename, double[] totals, String filename) {
+        Path target = Paths.get(filename).toAbsolutePath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Path yearsTmp = target.resolveSibling(target.getFileName() + ".years.tmp");
+        Path countsTmp = target.resolveSibling(target.getFileName() + ".counts.tmp");
+        Path cumulativeTmp = target.resolveSibling(target.getFileName() + ".cumulative.tmp");
+
+        try (FileChannel years = FileChannel.open(yearsTmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+             FileChannel counts = FileChannel.open(countsTmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+             FileChannel cumulative = FileChannel.open(cumulativeTmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE)) {
+            RunWriter runs = new RunWriter(new Output(years), new Output(counts), new Output(cumulative));
+            ChunkedLoader.stream(wordsFilename, runs);
+            runs.finish();
+
+            int n = runs.words.size();
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i += 1) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> SeriesStore.compareCodePoints(runs.words.get(a), runs.words.get(b)));
+
+            byte[][] encoded = new byte[n][];
+            long stringBytes = 0;
+            for (int i = 0; i < n; i += 1) {
+                encoded[i] = runs.words.get(order[i]).getBytes(StandardCharsets.UTF_8);
+                stringBytes += encoded[i].length;
+                if (i > 0 && Arrays.equals(encoded[i], encoded[i - 1])) {
+                    throw new IllegalArgumentException("The rows of \"" + runs.words.get(order[i])
+                            + "\" are not adjacent in " + wordsFilename + ".");
+                }
+            }
+
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                Output out = new Output(channel);
+                writeHeader(out, n, runs.points, stringBytes, totals);
+
+                long offset = 0;
+                out.putLong(offset);
+                for (int i = 0; i < n; i += 1) {
+                    offset += encoded[i].length;
+                    out.putLong(offset);
+                }
+                for (int i = 0; i < n; i += 1) {
+                    out.putLong(runs.starts[order[i]]);
+                }
+                for (int i = 0; i < n; i += 1) {
+                    out.putLong(runs.starts[order[i]] + runs.lengths[order[i]]);
+                }
+                for (int i = 0; i < n; i += 1) {
+                    out.put(encoded[i]);
+                }
+                out.align();
+                out.copyFrom(years);
+                out.align();
+                out.copyFrom(counts);
+                out.copyFrom(cumulative);
+                out.finish();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write snapshot " + filename, e);
+        }
+
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not move snapshot into " + filename, e);
+        }
+    }
+
+    private static void writeHeader(Output out, int words, long points, long stringBytes,
+                                    double[] totals) throws IOException {
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(words);
+        out.putInt(0);
+        out.putLong(points);
+        out.putLong(stringBytes);
+        out.zeroFill(HEADER_BYTES);
+
+        for (double total : totals) {
+            out.putDouble(total);
+        }
+    }
+
+    /**
+     * Memory-maps the snapshot FILENAME. Throws an IllegalArgumentException if the file
+     * is not a snapshot, has another version, or (when VERIFY is true) fails its checksum.
+     * Verifying reads the whole file once, which is worth skipping for very large snapshots
+     * that were checked when they were written.
+     */
+    static MappedStore open(String filename, boolean verify) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + 8) {
+                throw new IllegalArgumentException(filename + " is too short to be a snapshot.");
+            }
+            ByteBuffer[] pages = new ByteBuffer[(int) ((size + MappedStore.PAGE_SIZE - 1) / MappedStore.PAGE_SIZE)];
+            for (int i = 0; i < pages.length; i += 1) {
+                long from = i * MappedStore.PAGE_SIZE;
+                pages[i] = channel.map(FileChannel.MapMode.READ_ONLY, from,
+                        Math.min(MappedStore.PAGE_SIZE, size - from)).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            if (pages[0].getInt(0) != MAGIC) {
+                throw new IllegalArgumentException(filename + " is not an NGramMap snapshot.");
+            }
+            if (pages[0].getInt(4) != VERSION) {
+                throw new IllegalArgumentException("Snapshot " + filename + " has version "
+                        + pages[0].getInt(4) + ", expected " + VERSION + ".");
+            }
+
+            if (verify) {
+                CRC32 crc = new CRC32();
+                long checksumAt = size - 8;
+                for (int i = 0; i < pages.length; i += 1) {
+                    long from = i * MappedStore.PAGE_SIZE;
+                    int length = (int) Math.min(pages[i].capacity(), Math.max(0, checksumAt - from));
+                    crc.update(pages[i].duplicate().position(0).limit(length));
+                }
+                ByteBuffer stored = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                channel.read(stored, checksumAt);
+                if (crc.getValue() != stored.getLong(0)) {
+                    throw new IllegalArgumentException("Snapshot " + filename + " is corrupt (bad checksum).");
+                }
+            }
+            return new MappedStore(pages);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read snapshot " + filename, e);
+        }
+    }
+
+    /**
+     * Collects the rows of a words file one word at a time and appends each finished
+     * word to the year and count columns, remembering where it starts.
+     */
+    private static final class RunWriter implements RowSink {
+        private final Output years;
+        private final Output counts;
+        private final Output cumulative;
+        private final ColumnStore.Run run = new ColumnStore.Run();
+        private short[] sortedYears = new short[8];
+        private double[] sortedCounts = new double[8];
+        private String word;
+
+        final List<String> words = new ArrayList<>();
+        long[] starts = new long[1024];
+        int[] lengths = new int[1024];
+        long points;
+
+        RunWriter(Output years, Output counts, Output cumulative) {
+            this.years = years;
+            this.counts = counts;
+            this.cumulative = cumulative;
+        }
+
+        @Override
+        public void add(String w, int year, double count) {
+            if (!w.equals(word)) {
+                flush();
+                word = w;
+            }
+            if (year < Short.MIN_VALUE || year > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Year " + year + " is out of range for word " + w);
+            }
+            run.add((short) year, count);
+        }
+
+        private void flush() {
+            if (word == null) {
+                return;
+            }
+            if (sortedYears.length < run.size()) {
+                sortedYears = new short[run.size()];
+                sortedCounts = new double[run.size()];
+            }
+            int n = run.copyTo(sortedYears, sortedCounts, 0);
+            try {
+                double sum = 0;
+                for (int i = 0; i < n; i += 1) {
+                    sum += sortedCounts[i];
+                    years.putShort(sortedYears[i]);
+                    counts.putDouble(sortedCounts[i]);
+                    cumulative.putDouble(sum);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            int id = words.size();
+            if (id == starts.length) {
+                starts = Arrays.copyOf(starts, id * 2);
+                lengths = Arrays.copyOf(lengths, id * 2);
+            }
+            words.add(word);
+            starts[id] = points;
+            lengths[id] = n;
+            points += n;
+            run.clear();
+        }
+
+        void finish() throws IOException {
+            flush();
+            years.flush();
+            counts.flush();
+            cumulative.flush();
+        }
+    }
+
+    /** A buffered, checksummed little-endian writer. */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+        private long written;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buf.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            crc.update(buf.duplicate());
+            while (buf.hasRemaining()) {
+                written += channel.write(buf);
+            }
+            buf.clear();
+        }
+
+        private long position() {
+            return written + buf.position();
+        }
+
+        void putShort(short v) throws IOException {
+            ensure(2);
+            buf.putShort(v);
+        }
+
+        void putInt(int v) throws IOException {
+            ensure(4);
+            buf.putInt(v);
+        }
+
+        void putLong(long v) throws IOException {
+            ensure(8);
+            buf.putLong(v);
+        }
+
+        void putDouble(double v) throws IOException {
+            ensure(8);
+            buf.putDouble(v);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            int i = 0;
+            while (i < bytes.length) {
+                ensure(1);
+                int len = Math.min(buf.remaining(), bytes.length - i);
+                buf.put(bytes, i, len);
+                i += len;
+            }
+        }
+
+        /** Writes zeros up to byte offset TARGET. */
+        void zeroFill(long target) throws IOException {
+            while (position() < target) {
+                ensure(1);
+                buf.put((byte) 0);
+            }
+        }
+
+        /** Writes zeros up to the next multiple of 8 bytes. */
+        void align() throws IOException {
+            zeroFill(pad(position()));
+        }
+
+        /** Appends the contents of SOURCE, from its start to its current size. */
+        void copyFrom(FileChannel source) throws IOException {
+            long size = source.size();
+            long at = 0;
+            while (at < size) {
+                if (!buf.hasRemaining()) {
+                    flush();
+                }
+                int n = source.read(buf, at);
+                if (n < 0) {
+                    break;
+                }
+                at += n;
+            }
+        }
+
+        /** Flushes the buffer and appends the checksum. */
+        void finish() throws IOException {
+            flush();
+            buf.putLong(crc.getValue());
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package ngrams;
+
+/**
+ * How an NGramMap keeps the (year, count) points of its words.
+ */
+public enum StorageMode {
+    /**
+     * Fixed-width columns: a year, a count and a running total per point, 18 bytes
+     * in all, each readable directly. This is how maps are loaded.
+     */
+    PLAIN,
+
+    /**
+     * A compressed block of bits per word, with years as deltas and counts XORed
+     * with the count before them, usually a few bytes per point. A word is decoded
+     * when a query touches it, so queries pay some decoding time for the memory saved.
+     */
+    COMPRESSED
+}
@@ -0,0 +1,90 @@
+package ngrams;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Finds the words of a SeriesStore that end with a given suffix. The words are
+ * kept reversed, byte by byte, in a WordTable sorted in that order, so that
+ * the words ending with a suffix are exactly the reversed words starting with
+ * the reversed suffix: a contiguous range found by two binary searches.
+ */
+final class SuffixIndex {
+
+    /** The reversed UTF-8 encoding of every word, sorted. */
+    private final WordTable reversed;
+
+    /** ids[i] is the ID in the store of the word behind entry i of REVERSED. */
+    private final int[] ids;
+
+    private SuffixIndex(WordTable reversed, int[] ids) {
+        this.reversed = reversed;
+        this.ids = ids;
+    }
+
+    /** Builds the index of every word of STORE. */
+    static SuffixIndex of(SeriesStore store) {
+        int n = store.size();
+        byte[][] words = new byte[n][];
+        long total = 0;
+        for (int id = 0; id < n; id += 1) {
+            words[id] = reverse(store.word(id).getBytes(StandardCharsets.UTF_8));
+            total += words[id].length;
+        }
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many bytes of words (" + total + ") for a suffix index.");
+        }
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(words[a], words[b]));
+
+        byte[][] sorted = new byte[n][];
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            ids[i] = order[i];
+            sorted[i] = words[order[i]];
+        }
+        return new SuffixIndex(WordTable.of(sorted, (int) total), ids);
+    }
+
+    private static byte[] reverse(byte[] b) {
+        for (int i = 0, j = b.length - 1; i < j; i += 1, j -= 1) {
+            byte t = b[i];
+            b[i] = b[j];
+            b[j] = t;
+        }
+        return b;
+    }
+
+    /** Returns the IDs of the words that end with SUFFIX, in increasing order. */
+    int[] endingWith(String suffix) {
+        byte[] key = reverse(suffix.getBytes(StandardCharsets.UTF_8));
+        int from = bound(key, Integer.MAX_VALUE, false);
+        int to = bound(key, key.length, true);
+        int[] matches = Arrays.copyOfRange(ids, from, Math.max(from, to));
+        Arrays.sort(matches);
+        return matches;
+    }
+
+    /**
+     * Returns the first entry that, cut to LIMIT bytes, is at least KEY, or greater than
+     * KEY if ABOVE is true.
+     */
+    private int bound(byte[] key, int limit, boolean above) {
+        int lo = 0;
+        int hi = reversed.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = reversed.compare(mid, key, limit);
+            if (cmp < 0 || (above && cmp == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -1,19 +1,31 @@
 package ngrams;
 
-import java.sql.Time;
-import java.util.List;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
-import java.util.TreeMap;
-import java.lang.Math.*;
+import java.util.Set;
 
 /**
  * An object for mapping a year number (e.g. 1996) to numerical data. Provides
  * utility methods useful for data analysis.
  *
+ * A TimeSeries keeps its entries sorted by year in primitive arrays rather
+ * than in a tree. It can also be a view: a range of entries that belong to
+ * some other storage, such as another TimeSeries or an NGramMap. Creating a
+ * view takes a binary search and copies nothing. Views are copy-on-write: the
+ * first change made to one copies its entries into arrays of its own, so a
+ * change never shows through to the storage it was viewing.
+ *
  * @author Josh Hug
  */
-public class TimeSeries extends TreeMap<Integer, Double> {
+public class TimeSeries extends AbstractMap<Integer, Double> {
 
     /** If it helps speed up your code, you can assume year arguments to your NGramMap
      * are between 1400 and 2100. We've stored these values as the constants
@@ -21,39 +33,320 @@ public class TimeSeries extends TreeMap<Integer, Double> {
     public static final int MIN_YEAR = 1400;
     public static final int MAX_YEAR = 2100;
 
+    /**
+     * Read-only, year-sorted entries that a TimeSeries can view. Entry i has
+     * year year(i) and value value(i).
+     */
+    abstract static class Source {
+        abstract int year(int i);
+
+        abstract double value(int i);
+    }
+
+    /** Entries owned by exactly one TimeSeries once it has been written to. */
+    private static final class ArraySource extends Source {
+        int[] years;
+        double[] values;
+
+        ArraySource(int capacity) {
+            years = new int[capacity];
+            values = new double[capacity];
+        }
+
+        @Override
+        int year(int i) {
+            return years[i];
+        }
+
+        @Override
+        double value(int i) {
+            return values[i];
+        }
+    }
+
+    /** The entries of this TimeSeries are SOURCE's entries LO (inclusive) to HI (exclusive). */
+    private Source source;
+    private int lo;
+    private int hi;
+
+    /**
+     * True if SOURCE is an ArraySource that no other TimeSeries can see, so that it
+     * may be written to in place.
+     */
+    private boolean owned;
+
+    /** Incremented on every structural change, to fail iterators fast. */
+    private int modCount;
+
     /**
      * Constructs a new empty TimeSeries.
      */
     public TimeSeries() {
-        super();
+        source = new ArraySource(8);
+        owned = true;
+    }
+
+    private TimeSeries(Source source, int lo, int hi) {
+        this.source = source;
+        this.lo = lo;
+        this.hi = hi;
     }
 
     /**
      * Creates a copy of TS, but only between STARTYEAR and ENDYEAR,
      * inclusive of both end points.
+     *
+     * The copy starts out as a view of TS's entries and takes O(log n) time.
+     * Entries are only copied once either series is modified.
      */
     public TimeSeries(TimeSeries ts, int startYear, int endYear) {
-        super();
         // Do some error checking
         if (startYear > endYear) {
             throw new IllegalArgumentException("Start year cannot be after end year.");
         }
-        
-        // Copy years between bounds
-        for (Integer year : ts.keySet()) {
-            if (startYear <= year && year <= endYear) {
-                this.put(year, ts.get(year));
+        source = ts.source;
+        lo = ts.lowerBound(startYear);
+        hi = Math.max(lo, endYear == Integer.MAX_VALUE ? ts.hi : ts.lowerBound(endYear + 1));
+        // TS must now copy before writing, or this series would see the change.
+        ts.owned = false;
+    }
+
+    /**
+     * Returns a read-only view of entries LO (inclusive) to HI (exclusive) of SOURCE.
+     * The view is copied on its first modification, so SOURCE is never written to.
+     */
+    static TimeSeries view(Source source, int lo, int hi) {
+        return new TimeSeries(source, lo, hi);
+    }
+
+    /**
+     * Returns a copy of this TimeSeries that owns its entries. Modifying a view copies
+     * it anyway, so this is only needed to pay for the copy up front.
+     */
+    public TimeSeries copy() {
+        TimeSeries ts = new TimeSeries();
+        ts.ensureCapacity(size());
+        ArraySource dest = (ArraySource) ts.source;
+        for (int i = lo; i < hi; i += 1) {
+            dest.years[i - lo] = source.year(i);
+            dest.values[i - lo] = source.value(i);
+        }
+        ts.hi = size();
+        return ts;
+    }
+
+    /** Returns the index of the first entry whose year is at least YEAR, or HI if there is none. */
+    private int lowerBound(int year) {
+        int l = lo;
+        int h = hi;
+        while (l < h) {
+            int mid = (l + h) >>> 1;
+            if (source.year(mid) < year) {
+                l = mid + 1;
+            } else {
+                h = mid;
             }
         }
+        return l;
+    }
+
+    /** Returns the index of YEAR, or -1 if this series does not contain it. */
+    private int indexOf(Object key) {
+        if (!(key instanceof Integer)) {
+            return -1;
+        }
+        int year = (Integer) key;
+        int i = lowerBound(year);
+        return i < hi && source.year(i) == year ? i : -1;
+    }
+
+    /** Makes sure SOURCE is an ArraySource owned by this series with room for CAPACITY entries. */
+    private void ensureCapacity(int capacity) {
+        if (owned) {
+            ArraySource a = (ArraySource) source;
+            if (a.years.length < capacity) {
+                int n = Math.max(capacity, a.years.length * 2);
+                a.years = Arrays.copyOf(a.years, n);
+                a.values = Arrays.copyOf(a.values, n);
+            }
+            return;
+        }
+        ArraySource a = new ArraySource(Math.max(capacity, 8));
+        for (int i = lo; i < hi; i += 1) {
+            a.years[i - lo] = source.year(i);
+            a.values[i - lo] = source.value(i);
+        }
+        hi -= lo;
+        lo = 0;
+        source = a;
+        owned = true;
+    }
+
+    @Override
+    public int size() {
+        return hi - lo;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return hi == lo;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Double get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : source.value(i);
+    }
+
+    @Override
+    public Double put(Integer year, Double value) {
+        if (year == null || value == null) {
+            throw new NullPointerException("TimeSeries cannot hold null years or data.");
+        }
+        int i = lowerBound(year);
+        if (i < hi && source.year(i) == year) {
+            Double old = source.value(i);
+            int at = i - lo;
+            ensureCapacity(size());
+            ((ArraySource) source).values[at] = value;
+            return old;
+        }
+
+        int at = i - lo;
+        ensureCapacity(size() + 1);
+        ArraySource a = (ArraySource) source;
+        int n = size();
+        System.arraycopy(a.years, at, a.years, at + 1, n - at);
+        System.arraycopy(a.values, at, a.values, at + 1, n - at);
+        a.years[at] = year;
+        a.values[at] = value;
+        hi += 1;
+        modCount += 1;
+        return null;
+    }
+
+    @Override
+    public Double remove(Object key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        Double old = source.value(i);
+        removeAt(i - lo);
+        return old;
+    }
+
+    /** Removes the entry at offset AT from the first entry. */
+    private void removeAt(int at) {
+        ensureCapacity(size());
+        ArraySource a = (ArraySource) source;
+        int n = size();
+        System.arraycopy(a.years, at + 1, a.years, at, n - at - 1);
+        System.arraycopy(a.values, at + 1, a.values, at, n - at - 1);
+        hi -= 1;
+        modCount += 1;
+    }
+
+    @Override
+    public void clear() {
+        source = new ArraySource(8);
+        lo = 0;
+        hi = 0;
+        owned = true;
+        modCount += 1;
+    }
+
+    /** Returns the earliest year in this TimeSeries. */
+    public Integer firstKey() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return source.year(lo);
+    }
+
+    /** Returns the latest year in this TimeSeries. */
+    public Integer lastKey() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return source.year(hi - 1);
+    }
+
+    /** Returns the year of the entry at INDEX, counting from 0 in year order. */
+    public int yearAt(int index) {
+        return source.year(lo + Objects.checkIndex(index, size()));
+    }
+
+    /** Returns the data of the entry at INDEX, counting from 0 in year order. */
+    public double valueAt(int index) {
+        return source.value(lo + Objects.checkIndex(index, size()));
+    }
+
+    @Override
+    public Set<Map.Entry<Integer, Double>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<Integer, Double>> iterator() {
+                return new Iterator<>() {
+                    /** Offset of the next entry from the first entry. */
+                    private int next = 0;
+                    private int last = -1;
+                    private int expectedModCount = modCount;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size();
+                    }
+
+                    @Override
+                    public Map.Entry<Integer, Double> next() {
+                        if (modCount != expectedModCount) {
+                            throw new ConcurrentModificationException();
+                        }
+                        if (next >= size()) {
+                            throw new NoSuchElementException();
+                        }
+                        last = next;
+                        next += 1;
+                        return new AbstractMap.SimpleImmutableEntry<>(
+                                source.year(lo + last), source.value(lo + last));
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last < 0) {
+                            throw new IllegalStateException();
+                        }
+                        if (modCount != expectedModCount) {
+                            throw new ConcurrentModificationException();
+                        }
+                        removeAt(last);
+                        next = last;
+                        last = -1;
+                        expectedModCount = modCount;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return TimeSeries.this.size();
+            }
+        };
     }
 
     /**
      * Returns all years for this TimeSeries (in any order).
      */
     public List<Integer> years() {
-        List<Integer> years = new ArrayList<>();
-        for (Integer year : this.keySet()) {
-            years.add(year);
+        List<Integer> years = new ArrayList<>(size());
+        for (int i = lo; i < hi; i += 1) {
+            years.add(source.year(i));
         }
         return years;
     }
@@ -63,13 +356,23 @@ public class TimeSeries extends TreeMap<Integer, Double> {
      * Must be in the same order as years().
      */
     public List<Double> data() {
-        List<Double> data = new ArrayList<>();
-        for (Double datum : this.values()) {
-            data.add(datum);
+        List<Double> data = new ArrayList<>(size());
+        for (int i = lo; i < hi; i += 1) {
+            data.add(source.value(i));
         }
         return data;
     }
 
+    /** Appends YEAR and VALUE, which the caller guarantees is later than every year so far. */
+    private void append(int year, double value) {
+        ensureCapacity(size() + 1);
+        ArraySource a = (ArraySource) source;
+        a.years[size()] = year;
+        a.values[size()] = value;
+        hi += 1;
+        modCount += 1;
+    }
+
     /**
      * Returns the year-wise sum of this TimeSeries with the given TS. In other words, for
      * each year, sum the data from this TimeSeries with the data from TS. Should return a
@@ -81,20 +384,24 @@ public class TimeSeries extends TreeMap<Integer, Double> {
      */
     public TimeSeries plus(TimeSeries ts) {
         TimeSeries sum = new TimeSeries();
+        sum.ensureCapacity(size() + ts.size());
+        int i = lo;
+        int j = ts.lo;
 
-        if (this.years().isEmpty() && ts.years().isEmpty()) return sum;
-
-        int startYear = Math.min(this.firstKey(), ts.firstKey());
-        int endYear = Math.max(this.lastKey(), ts.lastKey());
-
-        for (int i = startYear; i <= endYear; i++) {
-            if (this.get(i) == null) {
-                if (ts.get(i) != null) sum.put(i, ts.get(i));
-                else continue;
-            }
-            else {
-                if (ts.get(i) == null) sum.put(i, this.get(i));
-                else sum.put(i, this.get(i) + ts.get(i));
+        // Walk both series in year order at once, like the merge step of merge sort.
+        while (i < hi || j < ts.hi) {
+            int x = i < hi ? source.year(i) : Integer.MAX_VALUE;
+            int y = j < ts.hi ? ts.source.year(j) : Integer.MAX_VALUE;
+            if (j >= ts.hi || (i < hi && x < y)) {
+                sum.append(x, source.value(i));
+                i += 1;
+            } else if (i >= hi || y < x) {
+                sum.append(y, ts.source.value(j));
+                j += 1;
+            } else {
+                sum.append(x, source.value(i) + ts.source.value(j));
+                i += 1;
+                j += 1;
             }
         }
         return sum;
@@ -111,19 +418,17 @@ public class TimeSeries extends TreeMap<Integer, Double> {
      */
     public TimeSeries dividedBy(TimeSeries ts) {
         TimeSeries quotient = new TimeSeries();
-
-        if (this.years().isEmpty() && ts.years().isEmpty()) return quotient;
-
-        int startYear = Math.min(this.MIN_YEAR, ts.MIN_YEAR);
-        int endYear = Math.max(this.MAX_YEAR, ts.MAX_YEAR);
-
-        for (int i = startYear; i <= endYear; i++) {
-            if (this.get(i) == null) {
-                if (ts.get(i) != null) continue;
-            } else {
-                if (ts.get(i) == null) throw new IllegalArgumentException("Can't divide by a year that doesn't exist.");
-                else quotient.put(i, this.get(i) / ts.get(i));
+        quotient.ensureCapacity(size());
+        int j = ts.lo;
+        for (int i = lo; i < hi; i += 1) {
+            int year = source.year(i);
+            while (j < ts.hi && ts.source.year(j) < year) {
+                j += 1;
+            }
+            if (j >= ts.hi || ts.source.year(j) != year) {
+                throw new IllegalArgumentException("Can't divide by a year that doesn't exist.");
             }
+            quotient.append(year, source.value(i) / ts.source.value(j));
         }
         return quotient;
     }
@@ -0,0 +1,101 @@
+package ngrams;
+
+/**
+ * Keeps the K best (ID, score) pairs offered to it, in a min-heap of
+ * primitive arrays whose root is the worst pair kept. Higher scores are
+ * better, and between equal scores the lower ID is better, so that the
+ * result does not depend on the order pairs are offered in.
+ */
+final class TopK {
+
+    private final int[] ids;
+    private final double[] scores;
+    private int size;
+
+    TopK(int k) {
+        ids = new int[k];
+        scores = new double[k];
+    }
+
+    /** Returns whether entry I is worse than entry J. */
+    private boolean worse(int i, int j) {
+        return scores[i] < scores[j] || (scores[i] == scores[j] && ids[i] > ids[j]);
+    }
+
+    private boolean worse(double score, int id, int i) {
+        return score < scores[i] || (score == scores[i] && id > ids[i]);
+    }
+
+    /** Keeps ID with SCORE if it is better than the worst pair kept, or if fewer than K are kept. */
+    void offer(int id, double score) {
+        if (size < ids.length) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size);
+            size += 1;
+        } else if (size > 0 && !worse(score, id, 0)) {
+            ids[0] = id;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /** Offers every pair kept by OTHER. */
+    void addAll(TopK other) {
+        for (int i = 0; i < other.size; i += 1) {
+            offer(other.ids[i], other.scores[i]);
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!worse(i, parent)) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int worst = i;
+            for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child += 1) {
+                if (worse(child, worst)) {
+                    worst = child;
+                }
+            }
+            if (worst == i) {
+                return;
+            }
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+
+    /**
+     * Empties the heap into IDSOUT and SCORESOUT, best first, and returns how many pairs
+     * there were.
+     */
+    int drain(int[] idsOut, double[] scoresOut) {
+        int n = size;
+        while (size > 0) {
+            size -= 1;
+            idsOut[size] = ids[0];
+            scoresOut[size] = scores[0];
+            swap(0, size);
+            siftDown(0);
+        }
+        return n;
+    }
+}
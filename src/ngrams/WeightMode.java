@@ -0,0 +1,16 @@
+package ngrams;
+
+/**
+ * How an NGramMap computes relative frequencies (weights).
+ */
+public enum WeightMode {
+    /** Divides counts by the yearly totals on every query. Costs no memory. */
+    ON_THE_FLY,
+
+    /**
+     * Divides every count by its yearly total once, up front, and keeps the results
+     * in an array alongside the counts. Weight queries become plain reads, at the cost
+     * of 8 bytes of heap per (word, year) point.
+     */
+    PRECOMPUTED
+}
@@ -0,0 +1,97 @@
+package ngrams;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A sorted string table: words packed one after another as UTF-8 bytes into a
+ * single byte[], with the offset of each word in an int[]. The ID of a word
+ * is its position in the table, so IDs are dense and follow the unsigned byte
+ * order of the words, which is also their code point order.
+ *
+ * Compared with a String[] and a HashMap from word to ID, a table costs the
+ * word's UTF-8 bytes plus 4 bytes per word, rather than two object headers,
+ * a char or byte array, a boxed Integer and a hash entry. Lookups are binary
+ * searches, and every prefix matches a contiguous range of IDs.
+ */
+final class WordTable extends Lexicon {
+
+    private final byte[] bytes;
+    private final int[] starts;
+
+    private WordTable(byte[] bytes, int[] starts) {
+        this.bytes = bytes;
+        this.starts = starts;
+    }
+
+    /** Packs WORDS, which must be sorted by code point and distinct, into a table. */
+    static WordTable of(String[] words) {
+        byte[][] encoded = new byte[words.length][];
+        long total = 0;
+        for (int i = 0; i < words.length; i += 1) {
+            encoded[i] = words[i].getBytes(StandardCharsets.UTF_8);
+            total += encoded[i].length;
+        }
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many bytes of words (" + total + ") for a word table.");
+        }
+        return of(encoded, (int) total);
+    }
+
+    /**
+     * Packs ENCODED, UTF-8 words in the order they should get IDs, into a table. TOTAL is
+     * the sum of their lengths.
+     */
+    static WordTable of(byte[][] encoded, int total) {
+        byte[] bytes = new byte[total];
+        int[] starts = new int[encoded.length + 1];
+        int at = 0;
+        for (int i = 0; i < encoded.length; i += 1) {
+            starts[i] = at;
+            System.arraycopy(encoded[i], 0, bytes, at, encoded[i].length);
+            at += encoded[i].length;
+        }
+        starts[encoded.length] = at;
+        return new WordTable(bytes, starts);
+    }
+
+    @Override
+    int size() {
+        return starts.length - 1;
+    }
+
+    @Override
+    String word(int id) {
+        return new String(bytes, starts[id], starts[id + 1] - starts[id], StandardCharsets.UTF_8);
+    }
+
+    @Override
+    int compare(int id, byte[] key, int limit) {
+        int from = starts[id];
+        int length = Math.min(starts[id + 1] - from, limit);
+        return Arrays.compareUnsigned(bytes, from, from + length, key, 0, key.length);
+    }
+
+    @Override
+    int find(String word) {
+        return find(word.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the ID of the word whose UTF-8 encoding is KEY, or -1 if there is none. */
+    int find(byte[] key) {
+        int lo = 0;
+        int hi = size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, key, Integer.MAX_VALUE);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+}
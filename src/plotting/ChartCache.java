@@ -0,0 +1,113 @@
+package plotting;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A least-recently-used cache of encoded charts, bounded by the total number
+ * of characters it holds rather than by the number of charts, since a chart
+ * with many series encodes to a much longer string than one with a single
+ * series.
+ *
+ * Keys should be normalized by the caller, so that queries asking for the
+ * same chart map to the same key. All methods are thread-safe. Rendering
+ * happens outside the lock, so two threads that miss on the same key at
+ * once may both render it; the later result simply replaces the earlier.
+ */
+public class ChartCache<K> {
+
+    private final long maxChars;
+    private final LinkedHashMap<K, String> charts = new LinkedHashMap<>(16, 0.75f, true);
+    private long chars;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /** Incremented by invalidate, so that charts rendered from old data are not cached. */
+    private long generation;
+
+    /** Creates a cache holding at most MAXCHARS characters of encoded charts. */
+    public ChartCache(long maxChars) {
+        if (maxChars < 0) {
+            throw new IllegalArgumentException("Cache size cannot be negative.");
+        }
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Returns the chart cached under KEY, or renders it with RENDER, caches it and
+     * returns it. A chart longer than the whole cache is returned but not cached.
+     */
+    public String get(K key, Supplier<String> render) {
+        long renderedIn;
+        synchronized (this) {
+            String chart = charts.get(key);
+            if (chart != null) {
+                hits += 1;
+                return chart;
+            }
+            misses += 1;
+            renderedIn = generation;
+        }
+        String chart = render.get();
+        put(key, chart, renderedIn);
+        return chart;
+    }
+
+    private synchronized void put(K key, String chart, long renderedIn) {
+        if (renderedIn != generation || chart.length() > maxChars) {
+            return;
+        }
+        String old = charts.put(key, chart);
+        if (old != null) {
+            chars -= old.length();
+        }
+        chars += chart.length();
+
+        Iterator<Map.Entry<K, String>> eldest = charts.entrySet().iterator();
+        while (chars > maxChars) {
+            chars -= eldest.next().getValue().length();
+            eldest.remove();
+            evictions += 1;
+        }
+    }
+
+    /** Removes every chart, for when the data they were drawn from changes. */
+    public synchronized void invalidate() {
+        charts.clear();
+        chars = 0;
+        generation += 1;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /** Returns the number of charts cached. */
+    public synchronized int size() {
+        return charts.size();
+    }
+
+    /** Returns the total length of the charts cached. */
+    public synchronized long chars() {
+        return chars;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return String.format("%d charts, %d/%d chars, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                charts.size(), chars, maxChars, hits, misses,
+                lookups == 0 ? 0.0 : 100.0 * hits / lookups, evictions);
+    }
+}
@@ -0,0 +1,81 @@
+package plotting;
+
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * How a chart is drawn and encoded: its size in pixels, the most points drawn
+ * per series, and the zlib compression level of the PNG (0 to 9, or -1 for
+ * zlib's default). Series with more points than MAXPOINTS are reduced with
+ * DECIMATION, as there is no point drawing more points than there are pixels
+ * across.
+ */
+public record ChartOptions(int width, int height, int maxPoints, int compressionLevel,
+                           Decimation decimation) {
+
+    public static final int MAX_WIDTH = 2000;
+    public static final int MAX_HEIGHT = 1500;
+
+    /**
+     * The chart HistoryHandler has always drawn, compressed for speed rather than size:
+     * charts are mostly flat colour, so the fastest level costs little in size.
+     */
+    public static final ChartOptions DEFAULT =
+            new ChartOptions(800, 600, 800, Deflater.BEST_SPEED, Decimation.LTTB);
+
+    public ChartOptions {
+        if (width < 1 || width > MAX_WIDTH || height < 1 || height > MAX_HEIGHT) {
+            throw new IllegalArgumentException("Charts must be between 1x1 and "
+                    + MAX_WIDTH + "x" + MAX_HEIGHT + " pixels, not " + width + "x" + height + ".");
+        }
+        if (maxPoints < 2) {
+            throw new IllegalArgumentException("A chart must draw at least 2 points per series.");
+        }
+        if (compressionLevel < -1 || compressionLevel > 9) {
+            throw new IllegalArgumentException("No such compression level: " + compressionLevel + ".");
+        }
+        if (decimation == null) {
+            throw new IllegalArgumentException("A chart needs a decimation.");
+        }
+    }
+
+    /**
+     * Reads the options "width", "height", "points", "compression" and "decimation" (the
+     * name of a Decimation, in any case) from PARAMS, for example the extra parameters of
+     * a query. Missing or malformed options are taken from DEFAULT, and values out of
+     * range are clamped; points defaults to the width.
+     */
+    public static ChartOptions from(Map<String, String> params) {
+        int width = clamp(parse(params.get("width"), DEFAULT.width), 1, MAX_WIDTH);
+        int height = clamp(parse(params.get("height"), DEFAULT.height), 1, MAX_HEIGHT);
+        int points = clamp(parse(params.get("points"), width), 2, Integer.MAX_VALUE);
+        int level = clamp(parse(params.get("compression"), DEFAULT.compressionLevel), -1, 9);
+        Decimation decimation = DEFAULT.decimation;
+        String name = params.get("decimation");
+        for (Decimation d : Decimation.values()) {
+            if (d.name().equalsIgnoreCase(name == null ? "" : name.trim())) {
+                decimation = d;
+            }
+        }
+        return new ChartOptions(width, height, points, level, decimation);
+    }
+
+    /** Returns these options as parameters that from reads back as equal options. */
+    public Map<String, String> toParams() {
+        return Map.of("width", Integer.toString(width), "height", Integer.toString(height),
+                "points", Integer.toString(maxPoints), "compression", Integer.toString(compressionLevel),
+                "decimation", decimation.name());
+    }
+
+    private static int parse(String s, int fallback) {
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (RuntimeException e) {
+            return fallback;
+        }
+    }
+
+    private static int clamp(int x, int lo, int hi) {
+        return Math.max(lo, Math.min(hi, x));
+    }
+}
@@ -0,0 +1,183 @@
+package plotting;
+
+import java.util.Arrays;
+
+/**
+ * Ways to reduce a series to at most a given number of points before it is
+ * drawn, so that drawing a chart takes time in proportion to its width rather
+ * than to the number of years in it. Each takes and returns the x and y values
+ * as primitive arrays, sorted by x. Series that are short enough already are
+ * returned as they are.
+ */
+public enum Decimation {
+
+    /** Splits the points into runs of consecutive points and draws each run at its mean. */
+    MEAN {
+        @Override
+        double[][] reduce(double[] xs, double[] ys, int maxPoints) {
+            int n = xs.length;
+            double[] x = new double[maxPoints];
+            double[] y = new double[maxPoints];
+            for (int b = 0; b < maxPoints; b += 1) {
+                int from = bucketStart(n, maxPoints, b);
+                int to = bucketStart(n, maxPoints, b + 1);
+                double sx = 0;
+                double sy = 0;
+                for (int i = from; i < to; i += 1) {
+                    sx += xs[i];
+                    sy += ys[i];
+                }
+                x[b] = sx / (to - from);
+                y[b] = sy / (to - from);
+            }
+            return new double[][] {x, y};
+        }
+    },
+
+    /**
+     * Splits the points into maxPoints / 2 runs and keeps the lowest and the highest point
+     * of each, in order, so that every peak and trough is drawn at its true height.
+     */
+    MIN_MAX {
+        @Override
+        double[][] reduce(double[] xs, double[] ys, int maxPoints) {
+            int n = xs.length;
+            int buckets = maxPoints / 2;
+            double[] x = new double[2 * buckets];
+            double[] y = new double[2 * buckets];
+            int m = 0;
+            for (int b = 0; b < buckets; b += 1) {
+                int from = bucketStart(n, buckets, b);
+                int to = bucketStart(n, buckets, b + 1);
+                int min = from;
+                int max = from;
+                for (int i = from + 1; i < to; i += 1) {
+                    if (ys[i] < ys[min]) {
+                        min = i;
+                    }
+                    if (ys[i] > ys[max]) {
+                        max = i;
+                    }
+                }
+                int first = Math.min(min, max);
+                int second = Math.max(min, max);
+                x[m] = xs[first];
+                y[m++] = ys[first];
+                if (second != first) {
+                    x[m] = xs[second];
+                    y[m++] = ys[second];
+                }
+            }
+            return trim(x, y, m);
+        }
+    },
+
+    /**
+     * Largest-Triangle-Three-Buckets (Steinarsson, 2013): keeps the first and last points,
+     * and from each of maxPoints - 2 runs in between, the point that makes the largest
+     * triangle with the point kept before it and the mean of the next run. Keeps the shape
+     * of the line, spikes included, better than MEAN at the same number of points.
+     */
+    LTTB {
+        @Override
+        double[][] reduce(double[] xs, double[] ys, int maxPoints) {
+            int n = xs.length;
+            int buckets = maxPoints - 2;
+            double[] x = new double[maxPoints];
+            double[] y = new double[maxPoints];
+            x[0] = xs[0];
+            y[0] = ys[0];
+            int kept = 0;
+            for (int b = 0; b < buckets; b += 1) {
+                // Runs cover the points between the first and the last.
+                int from = 1 + bucketStart(n - 2, buckets, b);
+                int to = 1 + bucketStart(n - 2, buckets, b + 1);
+                int nextTo = b + 1 < buckets ? 1 + bucketStart(n - 2, buckets, b + 2) : n;
+                double meanX = 0;
+                double meanY = 0;
+                for (int i = to; i < nextTo; i += 1) {
+                    meanX += xs[i];
+                    meanY += ys[i];
+                }
+                meanX /= nextTo - to;
+                meanY /= nextTo - to;
+
+                int best = from;
+                double bestArea = -1;
+                for (int i = from; i < to; i += 1) {
+                    double area = Math.abs((xs[kept] - meanX) * (ys[i] - ys[kept])
+                            - (xs[kept] - xs[i]) * (meanY - ys[kept]));
+                    if (area > bestArea) {
+                        bestArea = area;
+                        best = i;
+                    }
+                }
+                x[b + 1] = xs[best];
+                y[b + 1] = ys[best];
+                kept = best;
+            }
+            x[maxPoints - 1] = xs[n - 1];
+            y[maxPoints - 1] = ys[n - 1];
+            return new double[][] {x, y};
+        }
+    },
+
+    /**
+     * Smooths the series with a moving average over a window as wide as the runs MEAN would
+     * use, on each side of a point, then keeps maxPoints evenly spaced points of the result.
+     * Draws the trend rather than the year-to-year noise.
+     */
+    MOVING_AVERAGE {
+        @Override
+        double[][] reduce(double[] xs, double[] ys, int maxPoints) {
+            int n = xs.length;
+            int half = (n + maxPoints - 1) / maxPoints;
+            double[] sums = new double[n + 1];
+            for (int i = 0; i < n; i += 1) {
+                sums[i + 1] = sums[i] + ys[i];
+            }
+            double[] x = new double[maxPoints];
+            double[] y = new double[maxPoints];
+            for (int b = 0; b < maxPoints; b += 1) {
+                int i = (int) ((long) b * (n - 1) / (maxPoints - 1));
+                int from = Math.max(0, i - half);
+                int to = Math.min(n, i + half + 1);
+                x[b] = xs[i];
+                y[b] = (sums[to] - sums[from]) / (to - from);
+            }
+            return new double[][] {x, y};
+        }
+    };
+
+    /**
+     * Returns XS and YS reduced to at most MAXPOINTS points, as {x, y}, or XS and YS
+     * themselves if there are no more points than that already.
+     */
+    public double[][] apply(double[] xs, double[] ys, int maxPoints) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("A series needs as many x values as y values.");
+        }
+        if (maxPoints < 2) {
+            throw new IllegalArgumentException("A series must keep at least 2 points.");
+        }
+        if (xs.length <= maxPoints) {
+            return new double[][] {xs, ys};
+        }
+        return reduce(xs, ys, maxPoints);
+    }
+
+    /** Reduces XS and YS, which have more than MAXPOINTS points, to at most MAXPOINTS. */
+    abstract double[][] reduce(double[] xs, double[] ys, int maxPoints);
+
+    /** Returns the first of N points in bucket B of BUCKETS equal buckets. */
+    private static int bucketStart(int n, int buckets, int b) {
+        return (int) ((long) n * b / buckets);
+    }
+
+    private static double[][] trim(double[] x, double[] y, int m) {
+        if (m == x.length) {
+            return new double[][] {x, y};
+        }
+        return new double[][] {Arrays.copyOf(x, m), Arrays.copyOf(y, m)};
+    }
+}
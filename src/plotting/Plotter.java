@@ -1,30 +1,66 @@
 package plotting;
 
 import ngrams.TimeSeries;
-import org.knowm.xchart.BitmapEncoder;
 import org.knowm.xchart.SwingWrapper;
 import org.knowm.xchart.XYChart;
 
-import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.List;
 
 public class Plotter {
 
+    /*
+     * Charts are drawn into an image, encoded into a buffer and compressed with an
+     * encoder that each thread keeps from one chart to the next, so that drawing a
+     * chart does not allocate megabytes of pixels and buffers every time.
+     */
+    private static final ThreadLocal<BufferedImage> IMAGES = new ThreadLocal<>();
+    private static final ThreadLocal<PngEncoder> ENCODERS = ThreadLocal.withInitial(PngEncoder::new);
+    private static final ThreadLocal<PngBuffer> BUFFERS = ThreadLocal.withInitial(PngBuffer::new);
+
+    /** A ByteArrayOutputStream that can be Base64-encoded without copying it first. */
+    private static final class PngBuffer extends ByteArrayOutputStream {
+        String toBase64() {
+            ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(buf, 0, count));
+            return new String(encoded.array(), 0, encoded.limit(), StandardCharsets.ISO_8859_1);
+        }
+    }
+
     public static XYChart generateTimeSeriesChart(List<String> words, List<TimeSeries> lts) {
+        return generateTimeSeriesChart(words, lts, ChartOptions.DEFAULT);
+    }
+
+    /**
+     * Returns a chart of LTS, labelled with WORDS, drawn at the size OPTIONS gives. Series
+     * with more than OPTIONS.maxPoints() points are reduced to that many with
+     * OPTIONS.decimation() before they reach the chart.
+     */
+    public static XYChart generateTimeSeriesChart(List<String> words, List<TimeSeries> lts,
+                                                  ChartOptions options) {
         if (words.size() != lts.size()) {
             throw new IllegalArgumentException("List of words and List of time series objects must be the same length");
         }
 
-        XYChart chart = new XYChart(800, 600);
+        XYChart chart = new XYChart(options.width(), options.height());
 
         for (int i = 0; i < words.size(); i += 1) {
             TimeSeries ts = lts.get(i);
-            String word = words.get(i);
-            chart.addSeries(word, ts.years(), ts.data());
+            double[] years = new double[ts.size()];
+            double[] values = new double[ts.size()];
+            for (int j = 0; j < years.length; j += 1) {
+                years[j] = ts.yearAt(j);
+                values[j] = ts.valueAt(j);
+            }
+            double[][] xy = options.decimation().apply(years, values, options.maxPoints());
+            chart.addSeries(words.get(i), xy[0], xy[1]);
         }
 
         return chart;
@@ -34,17 +70,43 @@ public class Plotter {
         new SwingWrapper(chart).displayChart();
     }
 
+    /** Draws CHART into this thread's image, which is replaced only when its size is wrong. */
+    private static BufferedImage draw(XYChart chart) {
+        int width = chart.getWidth();
+        int height = chart.getHeight();
+        BufferedImage image = IMAGES.get();
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            IMAGES.set(image);
+        }
+        Graphics2D g = image.createGraphics();
+        try {
+            chart.paint(g, width, height);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /** Writes CHART to OUT as a PNG compressed at COMPRESSIONLEVEL (0 to 9, or -1). */
+    public static void writeChartAsPng(XYChart chart, int compressionLevel, OutputStream out) throws IOException {
+        ENCODERS.get().encode(draw(chart), compressionLevel, out);
+    }
+
     public static String encodeChartAsString(XYChart chart) {
-        BufferedImage img = BitmapEncoder.getBufferedImage(chart);
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        return encodeChartAsString(chart, ChartOptions.DEFAULT.compressionLevel());
+    }
 
+    /** Returns CHART as a Base64-encoded PNG, compressed at COMPRESSIONLEVEL (0 to 9, or -1). */
+    public static String encodeChartAsString(XYChart chart, int compressionLevel) {
+        PngBuffer buffer = BUFFERS.get();
+        buffer.reset();
         try {
-            ImageIO.write(img, "png", os);
+            writeChartAsPng(chart, compressionLevel, buffer);
         } catch (IOException e) {
-            e.printStackTrace();
+            // A ByteArrayOutputStream does not throw.
+            throw new UncheckedIOException(e);
         }
-
-        String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
-        return encodedImage;
+        return buffer.toBase64();
     }
 }
@@ -0,0 +1,155 @@
+package plotting;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes BufferedImages as 8-bit RGB PNGs, with a chosen zlib compression level.
+ *
+ * Compared with ImageIO, an encoder reads the pixels of TYPE_INT_RGB images
+ * straight from their backing array, compresses each row as it is filtered
+ * rather than the whole image at once, and keeps its Deflater and buffers
+ * from one image to the next. It is not thread-safe; keep one per thread.
+ */
+public class PngEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+    private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+    private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+    private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+
+    /** PNG row filters: each byte minus the byte to its left, or minus the byte above. */
+    private static final byte FILTER_SUB = 1;
+    private static final byte FILTER_UP = 2;
+
+    private final Deflater deflater = new Deflater();
+    private final CRC32 crc = new CRC32();
+    private final byte[] chunk = new byte[1 << 16];
+    private final byte[] header = new byte[13];
+    private final byte[] word = new byte[4];
+    private int chunkLength;
+
+    private byte[] previous = new byte[0];
+    private byte[] current = new byte[0];
+    private byte[] sub = new byte[0];
+    private byte[] up = new byte[0];
+
+    /** Writes IMAGE to OUT as a PNG compressed at LEVEL, from 0 to 9 or -1 for the default. */
+    public void encode(BufferedImage image, int level, OutputStream out) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int rowBytes = 3 * width;
+        if (current.length < rowBytes) {
+            previous = new byte[rowBytes];
+            current = new byte[rowBytes];
+            sub = new byte[rowBytes + 1];
+            up = new byte[rowBytes + 1];
+        }
+        int[] pixels = image.getType() == BufferedImage.TYPE_INT_RGB
+                ? ((DataBufferInt) image.getRaster().getDataBuffer()).getData()
+                : null;
+        int[] row = pixels == null ? new int[width] : null;
+
+        out.write(SIGNATURE);
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 8;   // bits per sample
+        header[9] = 2;   // colour type: RGB
+        header[10] = 0;  // deflate
+        header[11] = 0;  // adaptive filtering
+        header[12] = 0;  // not interlaced
+        writeChunk(out, IHDR, header, 13);
+
+        deflater.reset();
+        deflater.setLevel(level);
+        chunkLength = 0;
+        Arrays.fill(previous, 0, rowBytes, (byte) 0);
+        for (int y = 0; y < height; y += 1) {
+            int offset = y * width;
+            if (pixels == null) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                offset = 0;
+            }
+            int[] source = pixels == null ? row : pixels;
+            for (int x = 0, i = 0; x < width; x += 1, i += 3) {
+                int rgb = source[offset + x];
+                current[i] = (byte) (rgb >>> 16);
+                current[i + 1] = (byte) (rgb >>> 8);
+                current[i + 2] = (byte) rgb;
+            }
+            deflate(out, filter(rowBytes), rowBytes + 1);
+            byte[] t = previous;
+            previous = current;
+            current = t;
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            drain(out);
+        }
+        if (chunkLength > 0) {
+            writeChunk(out, IDAT, chunk, chunkLength);
+        }
+        writeChunk(out, IEND, chunk, 0);
+    }
+
+    /**
+     * Filters the current row both ways and returns the result that is likely to compress
+     * better: the one whose bytes, read as signed, sum to less in absolute value, as the
+     * PNG specification suggests.
+     */
+    private byte[] filter(int rowBytes) {
+        sub[0] = FILTER_SUB;
+        up[0] = FILTER_UP;
+        long subCost = 0;
+        long upCost = 0;
+        for (int i = 0; i < rowBytes; i += 1) {
+            byte s = (byte) (current[i] - (i >= 3 ? current[i - 3] : 0));
+            byte u = (byte) (current[i] - previous[i]);
+            sub[i + 1] = s;
+            up[i + 1] = u;
+            subCost += Math.abs(s);
+            upCost += Math.abs(u);
+        }
+        return upCost < subCost ? up : sub;
+    }
+
+    private void deflate(OutputStream out, byte[] filtered, int length) throws IOException {
+        deflater.setInput(filtered, 0, length);
+        while (!deflater.needsInput()) {
+            drain(out);
+        }
+    }
+
+    /** Moves compressed bytes into the chunk buffer, writing it out as an IDAT chunk when full. */
+    private void drain(OutputStream out) throws IOException {
+        chunkLength += deflater.deflate(chunk, chunkLength, chunk.length - chunkLength);
+        if (chunkLength == chunk.length) {
+            writeChunk(out, IDAT, chunk, chunkLength);
+            chunkLength = 0;
+        }
+    }
+
+    private void writeChunk(OutputStream out, byte[] type, byte[] data, int length) throws IOException {
+        writeInt(word, 0, length);
+        out.write(word);
+        out.write(type);
+        out.write(data, 0, length);
+        crc.reset();
+        crc.update(type);
+        crc.update(data, 0, length);
+        writeInt(word, 0, (int) crc.getValue());
+        out.write(word);
+    }
+
+    private static void writeInt(byte[] b, int at, int x) {
+        b[at] = (byte) (x >>> 24);
+        b[at + 1] = (byte) (x >>> 16);
+        b[at + 2] = (byte) (x >>> 8);
+        b[at + 3] = (byte) x;
+    }
+}
@@ -15,5 +15,8 @@ public class Utils {
     public static final String SHORT_WORDS_FILE = PREFIX + "very_short.csv";
     public static final String TOTAL_COUNTS_FILE = PREFIX + "total_counts.csv";
 
+    /** Binary snapshot of Q_WORDS_FILE and TOTAL_COUNTS_FILE, written by NGramMap.export. */
+    public static final String Q_WORDS_SNAPSHOT_FILE = PREFIX + "words_that_start_with_q.ngm";
+
 }
 
@@ -1,12 +1,16 @@
 $(function() {
 	plot = document.getElementById('plot');
 	textresult = document.getElementById('textresult');
+	chart = document.getElementById('chart');
 
-	var host;
-
-    host = 'http://localhost:4567';
+	// The page is served by the server it queries, on whatever port that is.
+	var host = '';
     const history_server = host + '/history';
     const historytext_server = host + '/historytext';
+    const historydata_server = host + '/historydata';
+    const topk_server = host + '/topk';
+    const trending_server = host + '/trending';
+    const similar_server = host + '/similar';
     const hyponyms_server = host + '/hyponyms';
 
     function get_params() {
@@ -14,16 +18,22 @@ $(function() {
             words: document.getElementById('words').value,
             startYear: document.getElementById('start').value,
             endYear: document.getElementById('end').value,
-            k: document.getElementById('k').value
+            k: document.getElementById('k').value,
+            decimation: document.getElementById('decimation').value
         }
     }
 
     $('#history').click(historyButton);
     $('#historytext').click(historyTextButton);
+    $('#historydata').click(historyDataButton);
+    $('#topk').click(function() { rankingButton(topk_server); });
+    $('#trending').click(function() { rankingButton(trending_server); });
+    $('#similar').click(function() { rankingButton(similar_server); });
     $('#hyponyms').click(hyponymsButton);
 
     function historyButton() {
         $("#textresult").hide();
+        $("#chart").hide();
         $("#plot").show();
 
         var params = get_params();
@@ -50,6 +60,7 @@ $(function() {
     function historyTextButton() {
         console.log("history text call");
         $("#plot").hide();
+        $("#chart").hide();
         $("#textresult").show();
 
         var params = get_params();
@@ -72,9 +83,114 @@ $(function() {
         });
     }
 
+    function historyDataButton() {
+        console.log("history data call");
+        $("#plot").hide();
+        $("#textresult").hide();
+        $("#chart").show();
+
+        var params = get_params();
+        console.log(params);
+        $.get({
+            url: historydata_server,
+            data: params,
+            success: function(data) {
+                drawChart(data);
+            },
+            error: function(data) {
+                console.log("error")
+                console.log(data);
+            },
+            dataType: 'json'
+        });
+    }
+
+    // Lists the words ranked by SERVER, one "word: score" per line.
+    function rankingButton(server) {
+        $("#plot").hide();
+        $("#chart").hide();
+        $("#textresult").show();
+
+        var params = get_params();
+        console.log(params);
+        $.get({
+            url: server,
+            data: params,
+            success: function(data) {
+                textresult.value = data.map(function(r) {
+                    return r.word + ": " + r.score;
+                }).join("\n");
+            },
+            error: function(data) {
+                console.log("error")
+                console.log(data);
+            },
+            dataType: 'json'
+        });
+    }
+
+    // Draws SERIES, a list of {word, years, values}, as a line chart on the canvas.
+    function drawChart(series) {
+        const colors = ['#d14836', '#3366cc', '#109618', '#ff9900', '#990099', '#0099c6'];
+        const ctx = chart.getContext('2d');
+        const left = 80, right = 20, top = 20, bottom = 50;
+        const width = chart.width - left - right;
+        const height = chart.height - top - bottom;
+        ctx.clearRect(0, 0, chart.width, chart.height);
+
+        var minYear = Infinity, maxYear = -Infinity, maxValue = 0;
+        series.forEach(function(s) {
+            for (var i = 0; i < s.years.length; i += 1) {
+                minYear = Math.min(minYear, s.years[i]);
+                maxYear = Math.max(maxYear, s.years[i]);
+                maxValue = Math.max(maxValue, s.values[i]);
+            }
+        });
+        if (minYear > maxYear) {
+            return;
+        }
+        const yearSpan = Math.max(1, maxYear - minYear);
+        const valueSpan = maxValue > 0 ? maxValue : 1;
+        const x = function(year) { return left + (year - minYear) / yearSpan * width; };
+        const y = function(value) { return top + height - value / valueSpan * height; };
+
+        ctx.strokeStyle = '#000';
+        ctx.fillStyle = '#000';
+        ctx.font = '12px sans-serif';
+        ctx.beginPath();
+        ctx.moveTo(left, top);
+        ctx.lineTo(left, top + height);
+        ctx.lineTo(left + width, top + height);
+        ctx.stroke();
+        ctx.textAlign = 'center';
+        ctx.fillText(minYear, left, top + height + 16);
+        ctx.fillText(maxYear, left + width, top + height + 16);
+        ctx.textAlign = 'right';
+        ctx.fillText(maxValue.toPrecision(3), left - 4, top + 4);
+        ctx.fillText('0', left - 4, top + height);
+
+        series.forEach(function(s, n) {
+            const color = colors[n % colors.length];
+            ctx.strokeStyle = color;
+            ctx.beginPath();
+            for (var i = 0; i < s.years.length; i += 1) {
+                if (i === 0) {
+                    ctx.moveTo(x(s.years[i]), y(s.values[i]));
+                } else {
+                    ctx.lineTo(x(s.years[i]), y(s.values[i]));
+                }
+            }
+            ctx.stroke();
+            ctx.fillStyle = color;
+            ctx.textAlign = 'left';
+            ctx.fillText(s.word, left + 10 + 100 * n, top + height + 36);
+        });
+    }
+
     function hyponymsButton() {
         console.log("hyponyms call");
         $("#plot").hide();
+        $("#chart").hide();
         $("#textresult").show();
 
         var params = get_params();
@@ -0,0 +1,45 @@
+import plotting.ChartCache;
+
+import org.junit.jupiter.api.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit Tests for the ChartCache class. */
+public class ChartCacheTest {
+    @Test
+    public void testHitsAndMisses() {
+        ChartCache<String> cache = new ChartCache<>(100);
+        assertThat(cache.get("a", () -> "aaaa")).isEqualTo("aaaa");
+        assertThat(cache.get("a", () -> "rendered again")).isEqualTo("aaaa");
+        assertThat(cache.hits()).isEqualTo(1L);
+        assertThat(cache.misses()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedByLength() {
+        ChartCache<String> cache = new ChartCache<>(10);
+        cache.get("a", () -> "aaaa");
+        cache.get("b", () -> "bbbb");
+        cache.get("a", () -> "aaaa");
+        // Needs 4 more chars than fit, so "b", the least recently used, goes.
+        cache.get("c", () -> "cccc");
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.chars()).isEqualTo(8L);
+        assertThat(cache.evictions()).isEqualTo(1L);
+        assertThat(cache.get("a", () -> "new a")).isEqualTo("aaaa");
+        assertThat(cache.get("b", () -> "new b")).isEqualTo("new b");
+
+        // Too long to ever fit, so it is returned but not cached.
+        assertThat(cache.get("d", () -> "ddddddddddddd")).isEqualTo("ddddddddddddd");
+        assertThat(cache.chars()).isAtMost(10L);
+    }
+
+    @Test
+    public void testInvalidate() {
+        ChartCache<String> cache = new ChartCache<>(100);
+        cache.get("a", () -> "old");
+        cache.invalidate();
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.get("a", () -> "new")).isEqualTo("new");
+    }
+}
@@ -0,0 +1,70 @@
+import plotting.Decimation;
+
+import org.junit.jupiter.api.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class DecimationTest {
+
+    /** Returns the years 1400 to 2100 with a smooth curve, and a spike in 1777. */
+    private static double[][] series() {
+        int n = 701;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            xs[i] = 1400 + i;
+            ys[i] = 100 + 50 * Math.sin(i / 40.0);
+        }
+        ys[377] = 1000;
+        return new double[][] {xs, ys};
+    }
+
+    private static double max(double[] a) {
+        double m = Double.NEGATIVE_INFINITY;
+        for (double x : a) {
+            m = Math.max(m, x);
+        }
+        return m;
+    }
+
+    @Test
+    public void testEveryDecimationReducesInOrder() {
+        double[][] s = series();
+        for (Decimation d : Decimation.values()) {
+            for (int maxPoints : new int[] {2, 3, 10, 100, 700}) {
+                double[][] r = d.apply(s[0], s[1], maxPoints);
+                assertThat(r[0].length).isEqualTo(r[1].length);
+                assertThat(r[0].length).isAtMost(maxPoints);
+                assertThat(r[0].length).isGreaterThan(0);
+                for (int i = 1; i < r[0].length; i += 1) {
+                    assertThat(r[0][i]).isAtLeast(r[0][i - 1]);
+                }
+            }
+            // Short enough series are drawn as they are.
+            assertThat(d.apply(s[0], s[1], 701)[1]).isSameInstanceAs(s[1]);
+        }
+    }
+
+    @Test
+    public void testPeaksAreKept() {
+        double[][] s = series();
+        double[][] lttb = Decimation.LTTB.apply(s[0], s[1], 50);
+        assertThat(lttb[0][0]).isEqualTo(1400.0);
+        assertThat(lttb[0][49]).isEqualTo(2100.0);
+        assertThat(max(lttb[1])).isEqualTo(1000.0);
+        assertThat(max(Decimation.MIN_MAX.apply(s[0], s[1], 50)[1])).isEqualTo(1000.0);
+
+        // Averaging methods flatten the spike.
+        assertThat(max(Decimation.MEAN.apply(s[0], s[1], 50)[1])).isLessThan(1000.0);
+        assertThat(max(Decimation.MOVING_AVERAGE.apply(s[0], s[1], 50)[1])).isLessThan(1000.0);
+    }
+
+    @Test
+    public void testMean() {
+        double[] xs = {0, 1, 2, 3, 4, 5};
+        double[] ys = {1, 3, 5, 7, 9, 11};
+        double[][] r = Decimation.MEAN.apply(xs, ys, 3);
+        assertThat(r[0]).isEqualTo(new double[] {0.5, 2.5, 4.5});
+        assertThat(r[1]).isEqualTo(new double[] {2, 6, 10});
+    }
+}
@@ -0,0 +1,70 @@
+import ngrams.DenseTimeSeries;
+import ngrams.TimeSeries;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit Tests for the DenseTimeSeries class. */
+public class DenseTimeSeriesTest {
+    @Test
+    public void testPlusMatchesTimeSeries() {
+        TimeSeries catPopulation = new TimeSeries();
+        catPopulation.put(1991, 0.0);
+        catPopulation.put(1992, 100.0);
+        catPopulation.put(1994, 200.0);
+
+        TimeSeries dogPopulation = new TimeSeries();
+        dogPopulation.put(1994, 400.0);
+        dogPopulation.put(1995, 500.0);
+
+        DenseTimeSeries total = new DenseTimeSeries(catPopulation);
+        total.plusInPlace(new DenseTimeSeries(dogPopulation));
+
+        assertThat(total.toTimeSeries()).isEqualTo(catPopulation.plus(dogPopulation));
+        assertThat(total.size()).isEqualTo(4);
+        assertThat(total.contains(1993)).isFalse();
+    }
+
+    @Test
+    public void testDividedByIntoDestination() {
+        DenseTimeSeries counts = new DenseTimeSeries();
+        counts.put(2000, 10.0);
+        counts.put(2001, 30.0);
+
+        DenseTimeSeries totals = new DenseTimeSeries();
+        totals.put(1999, 1.0);
+        totals.put(2000, 100.0);
+        totals.put(2001, 300.0);
+
+        DenseTimeSeries weights = new DenseTimeSeries();
+        DenseTimeSeries.dividedBy(counts, totals, weights);
+
+        List<Integer> expectedYears = new ArrayList<>(Arrays.asList(2000, 2001));
+        assertThat(weights.toTimeSeries().years()).isEqualTo(expectedYears);
+        assertThat(weights.get(2000)).isWithin(1E-10).of(0.1);
+        assertThat(weights.get(2001)).isWithin(1E-10).of(0.1);
+
+        weights.timesInPlace(10);
+        assertThat(weights.get(2001)).isWithin(1E-10).of(1.0);
+    }
+
+    @Test
+    public void testDividedByMissingYear() {
+        DenseTimeSeries counts = new DenseTimeSeries();
+        counts.put(2000, 10.0);
+        DenseTimeSeries totals = new DenseTimeSeries();
+        totals.put(2001, 300.0);
+
+        try {
+            counts.dividedByInPlace(totals);
+            throw new AssertionError("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertThat(counts.get(2000)).isWithin(1E-10).of(10.0);
+        }
+    }
+}
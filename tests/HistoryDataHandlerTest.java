@@ -0,0 +1,23 @@
+import browser.NgordnetQuery;
+import main.HistoryDataHandler;
+import ngrams.NGramMap;
+
+import org.junit.jupiter.api.Test;
+import java.util.List;
+
+import static utils.Utils.*;
+import static com.google.common.truth.Truth.assertThat;
+
+public class HistoryDataHandlerTest {
+
+    @Test
+    public void testHandle() {
+        NGramMap ngm = new NGramMap(SHORT_WORDS_FILE, TOTAL_COUNTS_FILE);
+        HistoryDataHandler handler = new HistoryDataHandler(ngm);
+        NgordnetQuery query = new NgordnetQuery(List.of("airport", "\"quoted\""), 2007, 2008, 0);
+        String actual = handler.handle(query);
+        String expected = "[{\"word\":\"airport\",\"years\":[2007,2008],\"values\":[175702,173294]},"
+                + "{\"word\":\"\\\"quoted\\\"\",\"years\":[],\"values\":[]}]";
+        assertThat(actual).isEqualTo(expected);
+    }
+}
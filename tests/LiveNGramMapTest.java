@@ -0,0 +1,83 @@
+import ngrams.LiveNGramMap;
+import ngrams.NGramMap;
+import ngrams.TimeSeries;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+import static utils.Utils.*;
+import static com.google.common.truth.Truth.assertThat;
+
+public class LiveNGramMapTest {
+
+    @Test
+    public void testReloadSwapsInBackground() throws Exception {
+        NGramMap small = new NGramMap(SHORT_WORDS_FILE, TOTAL_COUNTS_FILE);
+        LiveNGramMap live = new LiveNGramMap(small);
+        List<NGramMap> published = new ArrayList<>();
+        live.addListener(published::add);
+
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<NGramMap> reload = live.reload(() -> {
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return new NGramMap(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE);
+        });
+
+        // Queries are answered from the old map while the new one is being built.
+        loading.await();
+        assertThat(live.isReloading()).isTrue();
+        // A reload asked for meanwhile joins the one being built instead of queueing another.
+        assertThat(live.reload(() -> {
+            throw new AssertionError("A second reload should not run.");
+        })).isSameInstanceAs(reload);
+        NGramMap during = live.get();
+        assertThat(during).isEqualTo(small);
+        assertThat(during.countHistory("fish").isEmpty()).isTrue();
+
+        release.countDown();
+        NGramMap loaded = reload.get();
+        assertThat(live.get()).isEqualTo(loaded);
+        assertThat(live.isReloading()).isFalse();
+        assertThat(published).isEqualTo(List.of(loaded));
+        assertThat(live.get().countHistory("fish").isEmpty()).isFalse();
+        // A query still holding the old map keeps seeing the old data.
+        assertThat(during.countHistory("fish").isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testFailedReloadKeepsCurrentMap() throws Exception {
+        NGramMap small = new NGramMap(SHORT_WORDS_FILE, TOTAL_COUNTS_FILE);
+        LiveNGramMap live = new LiveNGramMap(small);
+        CompletableFuture<NGramMap> reload = live.reload(() -> {
+            throw new IllegalArgumentException("bad data");
+        });
+        boolean failed = false;
+        try {
+            reload.get();
+        } catch (ExecutionException e) {
+            failed = e.getCause() instanceof IllegalArgumentException;
+        }
+        assertThat(failed).isTrue();
+        assertThat(live.get()).isEqualTo(small);
+    }
+
+    @Test
+    public void testReturnedHistoriesCannotChangeTheMap() {
+        LiveNGramMap live = new LiveNGramMap(new NGramMap(SHORT_WORDS_FILE, TOTAL_COUNTS_FILE));
+        TimeSeries history = live.get().countHistory("request");
+        history.clear();
+        history.put(1999, 1.0);
+        assertThat(live.get().countHistory("request").size()).isEqualTo(4);
+    }
+}
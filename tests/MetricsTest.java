@@ -0,0 +1,90 @@
+import browser.Histogram;
+import browser.Metrics;
+
+import org.junit.jupiter.api.Test;
+import spark.Route;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MetricsTest {
+
+    @Test
+    public void testHistogramQuantiles() {
+        Histogram h = new Histogram();
+        assertThat(h.valueAt(0.5)).isEqualTo(0L);
+        for (long v = 1; v <= 1000; v += 1) {
+            h.record(v);
+        }
+        assertThat(h.count()).isEqualTo(1000L);
+        assertThat(h.sum()).isEqualTo(500500L);
+        assertThat(h.max()).isEqualTo(1000L);
+        // Buckets are 1/16 of a power of two wide, so quantiles are at most that far off.
+        assertThat((double) h.valueAt(0.5)).isWithin(500 / 16.0).of(500);
+        assertThat((double) h.valueAt(0.99)).isWithin(990 / 16.0).of(990);
+        assertThat(h.valueAt(1)).isEqualTo(1000L);
+
+        Histogram large = new Histogram();
+        large.record(Long.MAX_VALUE);
+        large.record(-5);
+        assertThat(large.valueAt(0)).isEqualTo(0L);
+        assertThat(large.valueAt(1)).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testTimedRoute() throws Exception {
+        Metrics metrics = new Metrics();
+        Route route = metrics.timed("history", (request, response) -> {
+            long start = System.nanoTime();
+            Metrics.recordValue("words", 3);
+            Metrics.recordPhase("lookup", start);
+            return "";
+        });
+        route.handle(null, null);
+        route.handle(null, null);
+        Route failing = metrics.timed("batch", (request, response) -> {
+            throw new IllegalStateException();
+        });
+        try {
+            failing.handle(null, null);
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+
+        assertThat(metrics.latency("history", "total").count()).isEqualTo(2L);
+        assertThat(metrics.latency("history", "lookup").count()).isEqualTo(2L);
+        assertThat(metrics.values("history", "words").sum()).isEqualTo(6L);
+        assertThat(metrics.errors("batch")).isEqualTo(1L);
+        assertThat(metrics.errors("history")).isEqualTo(0L);
+
+        // Outside a request, nothing is recorded.
+        Metrics.recordPhase("lookup", System.nanoTime());
+        assertThat(metrics.latency("history", "lookup").count()).isEqualTo(2L);
+
+        metrics.gauge("ngordnet_pool_queued", "pool=\"render\"", "gauge", "Queued queries.", () -> 7);
+        String text = metrics.toPrometheus();
+        assertThat(text).contains("# TYPE ngordnet_request_seconds summary\n");
+        assertThat(text).contains("ngordnet_request_seconds_count{endpoint=\"history\",phase=\"total\"} 2\n");
+        assertThat(text).contains("ngordnet_query{endpoint=\"history\",value=\"words\",quantile=\"0.5\"} 3.0\n");
+        assertThat(text).contains("ngordnet_request_errors_total{endpoint=\"batch\"} 1\n");
+        assertThat(text).contains("ngordnet_pool_queued{pool=\"render\"} 7\n");
+    }
+
+    @Test
+    public void testGaugesAreGroupedByName() {
+        Metrics metrics = new Metrics();
+        // The order in which NgordnetServer registers the gauges of two pools.
+        for (String pool : new String[] {"render", "query"}) {
+            String labels = "pool=\"" + pool + "\"";
+            metrics.gauge("ngordnet_pool_queued", labels, "gauge", "Queued queries.", () -> 1);
+            metrics.gauge("ngordnet_pool_active", labels, "gauge", "Active queries.", () -> 2);
+        }
+        String text = metrics.toPrometheus();
+        for (String name : new String[] {"ngordnet_pool_queued", "ngordnet_pool_active"}) {
+            String type = "# TYPE " + name + " gauge\n";
+            assertThat(text.indexOf(type)).isAtLeast(0);
+            assertThat(text.indexOf(type)).isEqualTo(text.lastIndexOf(type));
+            assertThat(text).contains(type + name + "{pool=\"render\"} ");
+        }
+        assertThat(text).contains("ngordnet_pool_queued{pool=\"render\"} 1\nngordnet_pool_queued{pool=\"query\"} 1\n");
+    }
+}
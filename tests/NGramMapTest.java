@@ -1,14 +1,24 @@
+import ngrams.BatchQuery;
+import ngrams.LoadMode;
 import ngrams.NGramMap;
+import ngrams.RankedWord;
+import ngrams.Ranking;
+import ngrams.StorageMode;
 import ngrams.TimeSeries;
+import ngrams.WeightMode;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 import static utils.Utils.*;
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 /** Unit Tests for the NGramMap class.
  *  @author Josh Hug
@@ -72,4 +82,469 @@ public class NGramMapTest {
         assertThat(fishPlusDogWeight.get(1865)).isWithin(1E-10).of(expectedFishPlusDogWeight1865);
     }
 
-}  
\ No newline at end of file
+    @Test
+    public void testCountHistoryIsDefensiveCopy() {
+        NGramMap ngm = new NGramMap(SHORT_WORDS_FILE, TOTAL_COUNTS_FILE);
+
+        TimeSeries request = ngm.countHistory("request");
+        request.put(2005, 0.0);
+        request.put(1990, 1.0);
+
+        TimeSeries again = ngm.countHistory("request");
+        assertThat(again.get(2005)).isWithin(1E-10).of(646179.0);
+        assertThat(again.get(1990)).isNull();
+        assertThat(ngm.countHistory("notaword").isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testParallelLoadMatchesSequential() {
+        NGramMap sequential = new NGramMap(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE);
+        NGramMap parallel = new NGramMap(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE, LoadMode.PARALLEL);
+
+        for (String word : List.of("fish", "dog", "cat", "notaword")) {
+            assertThat(parallel.countHistory(word)).isEqualTo(sequential.countHistory(word));
+        }
+        assertThat(parallel.totalCountHistory()).isEqualTo(sequential.totalCountHistory());
+    }
+
+    @Test
+    public void testParallelLoadReportsBadLinesByByte() throws IOException {
+        Path words = Files.createTempFile("bad", ".words.csv");
+        try {
+            // Enough good lines that the bad ones fall in a later chunk.
+            StringBuilder good = new StringBuilder();
+            while (good.length() < 3 << 20) {
+                good.append("word\t2000\t1\t1\n\n");
+            }
+            for (String bad : List.of("word\t99999999999\t1\t1\n", "word\t\t1\t1\n", "word\n")) {
+                Files.writeString(words, good + bad);
+                IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                        () -> new NGramMap(words.toString(), TOTAL_COUNTS_FILE, LoadMode.PARALLEL));
+                assertThat(e.getMessage()).contains("line at byte " + good.length());
+            }
+        } finally {
+            Files.delete(words);
+        }
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws IOException {
+        NGramMap ngm = new NGramMap(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE);
+        Path snapshot = Files.createTempFile("ngrams", ".ngm");
+        try {
+            ngm.export(snapshot.toString());
+            NGramMap loaded = new NGramMap(snapshot.toString());
+
+            for (String word : List.of("fish", "dog", "cat", "notaword")) {
+                assertThat(loaded.countHistory(word)).isEqualTo(ngm.countHistory(word));
+            }
+            assertThat(loaded.totalCountHistory()).isEqualTo(ngm.totalCountHistory());
+            assertThat(loaded.weightHistory("fish", 1850, 1933).get(1865))
+                    .isWithin(1E-10).of(136497.0 / 2563919231.0);
+        } finally {
+            Files.delete(snapshot);
+        }
+    }
+
+    @Test
+    public void testWriteSnapshotWithoutLoading() throws IOException {
+        NGramMap ngm = new NGramMap(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE);
+        Path snapshot = Files.createTempFile("ngrams", ".ngm");
+        try {
+            NGramMap.writeSnapshot(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE, snapshot.toString());
+            NGramMap mapped = new NGramMap(snapshot.toString(), false);
+
+            for (String word : List.of("fish", "dog", "cat", "notaword")) {
+                assertThat(mapped.countHistory(word, 1850, 1933))
+                        .isEqualTo(ngm.countHistory(word, 1850, 1933));
+            }
+            assertThat(mapped.summedWeightHistory(List.of("fish", "dog"), 1865, 1866))
+                    .isEqualTo(ngm.summedWeightHistory(List.of("fish", "dog"), 1865, 1866));
+            assertThat(mapped.rangeSum("fish", 1850, 1933))
+                    .isWithin(1E-10).of(ngm.rangeSum("fish", 1850, 1933));
+        } finally {
+            Files.delete(snapshot);
+        }
+    }
+
+    @Test
+    public void testPrecomputedWeights() {
+        NGramMap ngm = new NGramMap(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE);
+        NGramMap precomputed = ngm.withWeightMode(WeightMode.PRECOMPUTED);
+        assertThat(precomputed.weightMode()).isEqualTo(WeightMode.PRECOMPUTED);
+
+        TimeSeries fishWeight = precomputed.weightHistory("fish", 1850, 1933);
+        assertThat(fishWeight.years()).isEqualTo(ngm.weightHistory("fish", 1850, 1933).years());
+        assertThat(fishWeight.get(1865)).isWithin(1E-10).of(136497.0 / 2563919231.0);
+
+        List<String> fishAndDog = List.of("fish", "dog");
+        TimeSeries summed = precomputed.summedWeightHistory(fishAndDog, 1865, 1866);
+        assertThat(summed.get(1865)).isWithin(1E-10).of((136497.0 + 75819.0) / 2563919231.0);
+        assertThat(summed.years()).isEqualTo(ngm.summedWeightHistory(fishAndDog, 1865, 1866).years());
+    }
+
+    @Test
+    public void testRangeAggregates() {
+        NGramMap ngm = new NGramMap(SHORT_WORDS_FILE, TOTAL_COUNTS_FILE);
+
+        assertThat(ngm.rangeSum("request", 2006, 2007)).isWithin(1E-10).of(677820.0 + 697645.0);
+        assertThat(ngm.rangeSum("request", 1900, 2100))
+                .isWithin(1E-10).of(646179.0 + 677820.0 + 697645.0 + 795265.0);
+        assertThat(ngm.rangeSum("request", 1900, 2000)).isWithin(1E-10).of(0.0);
+        assertThat(ngm.rangeSum("notaword", 1900, 2100)).isWithin(1E-10).of(0.0);
+
+        assertThat(ngm.rangeMean("airport", 2000, 2020)).isWithin(1E-10).of((175702.0 + 173294.0) / 2);
+        assertThat(Double.isNaN(ngm.rangeMean("airport", 2000, 2006))).isTrue();
+
+        assertThat(ngm.summedRangeSum(List.of("request", "airport", "notaword"), 2007, 2007))
+                .isWithin(1E-10).of(697645.0 + 175702.0);
+    }
+
+    @Test
+    public void testBatchMatchesSingleQueries() {
+        NGramMap onTheFly = new NGramMap(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE);
+        List<BatchQuery> batch = List.of(
+                new BatchQuery(List.of("fish", "dog"), 1850, 1933),
+                new BatchQuery(List.of("dog", "notaword"), 1900, 2000),
+                new BatchQuery(List.of("fish", "dog"), 1850, 1933),
+                new BatchQuery(List.of("dog", "fish", "dog"), 1920, 2019),
+                new BatchQuery(List.of("fish"), 1000, 1200));
+
+        for (NGramMap ngm : List.of(onTheFly, onTheFly.withWeightMode(WeightMode.PRECOMPUTED))) {
+            List<TimeSeries> sums = ngm.batchSummedWeightHistory(batch);
+            List<List<TimeSeries>> histories = ngm.batchWeightHistory(batch);
+            assertThat(sums.size()).isEqualTo(batch.size());
+            for (int i = 0; i < batch.size(); i += 1) {
+                BatchQuery q = batch.get(i);
+                TimeSeries expected = ngm.summedWeightHistory(q.words(), q.startYear(), q.endYear());
+                assertThat(sums.get(i).years()).isEqualTo(expected.years());
+                for (int year : expected.years()) {
+                    assertThat(sums.get(i).get(year)).isWithin(1E-15).of(expected.get(year));
+                }
+                for (int j = 0; j < q.words().size(); j += 1) {
+                    assertThat(histories.get(i).get(j))
+                            .isEqualTo(ngm.weightHistory(q.words().get(j), q.startYear(), q.endYear()));
+                }
+            }
+
+            // Repeated queries may share data, but must not share changes.
+            sums.get(2).put(1850, -1.0);
+            assertThat(sums.get(0).get(1850)).isGreaterThan(0.0);
+            histories.get(0).get(1).put(1850, -1.0);
+            assertThat(histories.get(2).get(1).get(1850)).isGreaterThan(0.0);
+        }
+    }
+
+    @Test
+    public void testBatchFailsOnlyForYearsItAsksFor() throws IOException {
+        Path words = Files.createTempFile("gap", ".words.csv");
+        Path counts = Files.createTempFile("gap", ".counts.csv");
+        try {
+            // 2001 has a count but no total, and lies between the two queries.
+            Files.writeString(words, "gap\t2000\t1\t1\ngap\t2001\t2\t1\ngap\t2002\t3\t1\n");
+            Files.writeString(counts, "2000,10,1,1\n2002,30,1,1\n");
+            NGramMap onTheFly = new NGramMap(words.toString(), counts.toString());
+            for (NGramMap ngm : List.of(onTheFly, onTheFly.withWeightMode(WeightMode.PRECOMPUTED))) {
+                List<BatchQuery> batch = List.of(
+                        new BatchQuery(List.of("gap"), 2000, 2000), new BatchQuery(List.of("gap"), 2002, 2002));
+                List<List<TimeSeries>> histories = ngm.batchWeightHistory(batch);
+                List<TimeSeries> sums = ngm.batchSummedWeightHistory(batch);
+                for (int i = 0; i < batch.size(); i += 1) {
+                    BatchQuery q = batch.get(i);
+                    assertThat(histories.get(i).get(0)).isEqualTo(ngm.weightHistory("gap", q.startYear(), q.endYear()));
+                    assertThat(sums.get(i)).isEqualTo(ngm.summedWeightHistory(q.words(), q.startYear(), q.endYear()));
+                }
+
+                List<BatchQuery> spanning = List.of(new BatchQuery(List.of("gap"), 2000, 2002));
+                assertThrows(IllegalArgumentException.class, () -> ngm.weightHistory("gap", 2000, 2002));
+                assertThrows(IllegalArgumentException.class, () -> ngm.batchWeightHistory(spanning));
+            }
+        } finally {
+            Files.delete(words);
+            Files.delete(counts);
+        }
+    }
+
+    @Test
+    public void testWithDelta() throws IOException {
+        NGramMap ngm = new NGramMap(SHORT_WORDS_FILE, TOTAL_COUNTS_FILE);
+        Path words1 = Files.createTempFile("delta", ".words.csv");
+        Path words2 = Files.createTempFile("delta", ".words.csv");
+        Path counts2 = Files.createTempFile("delta", ".counts.csv");
+        Path snapshot = Files.createTempFile("ngrams", ".ngm");
+        try {
+            Files.writeString(words1, "request\t2009\t10\t1\nrequest\t2005\t1\t1\n"
+                    + "zebra\t2008\t5\t1\naardvark\t2006\t7\t1\n");
+            Files.writeString(words2, "airport\t2009\t3\t1\nzebra\t2009\t6\t1\nbanana\t2007\t2\t1\n");
+            Files.writeString(counts2, "2009,100,1,1\n");
+
+            NGramMap once = ngm.withDelta(words1.toString(), null);
+            NGramMap twice = once.withDelta(words2.toString(), counts2.toString())
+                    .withWeightMode(WeightMode.PRECOMPUTED);
+
+            // The original map is untouched.
+            assertThat(ngm.countHistory("request").get(2005)).isWithin(1E-10).of(646179.0);
+            assertThat(ngm.countHistory("zebra").isEmpty()).isTrue();
+
+            assertThat(once.countHistory("request").years()).isEqualTo(List.of(2005, 2006, 2007, 2008, 2009));
+            assertThat(once.countHistory("request").get(2005)).isWithin(1E-10).of(1.0);
+            assertThat(once.countHistory("aardvark").get(2006)).isWithin(1E-10).of(7.0);
+            assertThat(once.countHistory("wandered")).isEqualTo(ngm.countHistory("wandered"));
+
+            assertThat(twice.countHistory("zebra").years()).isEqualTo(List.of(2008, 2009));
+            assertThat(twice.countHistory("request").get(2009)).isWithin(1E-10).of(10.0);
+            assertThat(twice.countHistory("banana").get(2007)).isWithin(1E-10).of(2.0);
+            assertThat(twice.weightHistory("airport").get(2009)).isWithin(1E-10).of(3.0 / 100.0);
+            assertThat(twice.rangeSum("airport", 2000, 2020)).isWithin(1E-10).of(175702.0 + 173294.0 + 3.0);
+
+            // Without new totals, a precomputed index keeps the weights it has and computes
+            // only those of the new points, which must agree with weights on the fly.
+            NGramMap precomputed = ngm.withWeightMode(WeightMode.PRECOMPUTED)
+                    .withDelta(words1.toString(), null).withDelta(words2.toString(), null);
+            NGramMap onTheFly = once.withDelta(words2.toString(), null);
+            for (String word : List.of("aardvark", "airport", "banana", "request", "wandered", "zebra")) {
+                assertThat(precomputed.weightHistory(word)).isEqualTo(onTheFly.weightHistory(word));
+            }
+
+            // Every word survives a round trip through a snapshot, in order.
+            twice.export(snapshot.toString());
+            NGramMap loaded = new NGramMap(snapshot.toString());
+            for (String word : List.of("aardvark", "airport", "banana", "request", "wandered", "zebra")) {
+                assertThat(loaded.countHistory(word)).isEqualTo(twice.countHistory(word));
+            }
+        } finally {
+            Files.delete(words1);
+            Files.delete(words2);
+            Files.delete(counts2);
+            Files.delete(snapshot);
+        }
+    }
+
+    @Test
+    public void testWildcardSearch() throws IOException {
+        NGramMap ngm = new NGramMap(SHORT_WORDS_FILE, TOTAL_COUNTS_FILE);
+        assertThat(ngm.matchingWords("*")).isEqualTo(List.of("airport", "request", "wandered"));
+        assertThat(ngm.matchingWords("re*")).isEqualTo(List.of("request"));
+        assertThat(ngm.matchingWords("*port")).isEqualTo(List.of("airport"));
+        assertThat(ngm.matchingWords("a?rp*t")).isEqualTo(List.of("airport"));
+        assertThat(ngm.matchingWords("*e*e*")).isEqualTo(List.of("request", "wandered"));
+        assertThat(ngm.matchingWords("request")).isEqualTo(List.of("request"));
+        assertThat(ngm.matchingWords("req")).isEmpty();
+        assertThat(ngm.matchingWords("x*")).isEmpty();
+
+        NGramMap large = new NGramMap(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE);
+        assertThat(large.matchingWords("*tion")).containsAtLeast("nation", "station");
+        TimeSeries expected = large.summedWeightHistory(large.matchingWords("*tion"), 1900, 2000);
+        assertThat(expected.isEmpty()).isFalse();
+        assertThat(large.wildcardWeightHistory("*tion", 1900, 2000)).isEqualTo(expected);
+
+        Path snapshot = Files.createTempFile("ngrams", ".ngm");
+        Path words = Files.createTempFile("delta", ".words.csv");
+        try {
+            large.export(snapshot.toString());
+            NGramMap loaded = new NGramMap(snapshot.toString());
+            Files.writeString(words, "quixotically\t2000\t1\t1\naaa\t2000\t1\t1\n");
+            NGramMap patched = large.withDelta(words.toString(), null);
+            for (String pattern : List.of("q*", "*tion", "c?t*", "*a*z*", "qu*ly")) {
+                List<String> matches = large.matchingWords(pattern);
+                assertThat(loaded.matchingWords(pattern)).isEqualTo(matches);
+                List<String> withDelta = new ArrayList<>(matches);
+                if ("quixotically".matches(pattern.replace("?", ".").replace("*", ".*"))) {
+                    withDelta.add("quixotically");
+                    withDelta.sort(null);
+                }
+                assertThat(patched.matchingWords(pattern)).isEqualTo(withDelta);
+            }
+            assertThat(patched.matchingWords("aa*")).contains("aaa");
+        } finally {
+            Files.delete(snapshot);
+            Files.delete(words);
+        }
+    }
+
+    @Test
+    public void testTopKMatchesFullScan() {
+        NGramMap ngm = new NGramMap(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE);
+        NGramMap precomputed = ngm.withWeightMode(WeightMode.PRECOMPUTED);
+        List<String> words = ngm.matchingWords("*");
+
+        List<RankedWord> byWeight = new ArrayList<>();
+        List<RankedWord> byRise = new ArrayList<>();
+        for (String word : words) {
+            double sum = 0;
+            for (double w : ngm.weightHistory(word, 1900, 1950).values()) {
+                sum += w;
+            }
+            TimeSeries history = ngm.weightHistory(word);
+            double rise = history.getOrDefault(1950, 0.0) - history.getOrDefault(1900, 0.0);
+            if (sum > 0) {
+                byWeight.add(new RankedWord(word, sum));
+            }
+            if (rise > 0) {
+                byRise.add(new RankedWord(word, rise));
+            }
+        }
+        byWeight.sort((a, b) -> Double.compare(b.score(), a.score()));
+        byRise.sort((a, b) -> Double.compare(b.score(), a.score()));
+
+        for (NGramMap map : List.of(ngm, precomputed)) {
+            List<RankedWord> top = map.topK(20, 1900, 1950, Ranking.WEIGHT);
+            assertThat(top.size()).isEqualTo(Math.min(20, byWeight.size()));
+            // A k beyond the vocabulary allocates for the vocabulary, not for k.
+            assertThat(map.topK(Integer.MAX_VALUE, 1900, 1950, Ranking.WEIGHT).size()).isEqualTo(byWeight.size());
+            for (int i = 0; i < top.size(); i += 1) {
+                assertThat(top.get(i).word()).isEqualTo(byWeight.get(i).word());
+                assertThat(top.get(i).score()).isWithin(1E-12).of(byWeight.get(i).score());
+            }
+            List<RankedWord> rising = map.topK(5, 1900, 1950, Ranking.RISE);
+            for (int i = 0; i < rising.size(); i += 1) {
+                assertThat(rising.get(i).word()).isEqualTo(byRise.get(i).word());
+            }
+        }
+
+        // Every word is ranked when K is large enough.
+        assertThat(ngm.topK(words.size() + 1, 1400, 2100, Ranking.WEIGHT).size()).isEqualTo(words.size());
+        assertThat(ngm.topK(List.of("q*"), 3, 1900, 2000, Ranking.WEIGHT).get(0).word()).startsWith("q");
+    }
+
+    /** Returns the Pearson correlation of the weights of A and B from START to END, with missing years as 0. */
+    private static double pearson(NGramMap ngm, String a, String b, int start, int end) {
+        TimeSeries x = ngm.weightHistory(a, start, end);
+        TimeSeries y = ngm.weightHistory(b, start, end);
+        int n = end - start + 1;
+        double mx = 0;
+        double my = 0;
+        for (int year = start; year <= end; year += 1) {
+            mx += x.getOrDefault(year, 0.0) / n;
+            my += y.getOrDefault(year, 0.0) / n;
+        }
+        double sxy = 0;
+        double sxx = 0;
+        double syy = 0;
+        for (int year = start; year <= end; year += 1) {
+            double dx = x.getOrDefault(year, 0.0) - mx;
+            double dy = y.getOrDefault(year, 0.0) - my;
+            sxy += dx * dy;
+            sxx += dx * dx;
+            syy += dy * dy;
+        }
+        return sxy / Math.sqrt(sxx * syy);
+    }
+
+    @Test
+    public void testSimilarWords() throws IOException {
+        NGramMap ngm = new NGramMap(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE);
+
+        // A short range is compared year by year in full, so it matches a brute-force search.
+        List<RankedWord> exact = new ArrayList<>();
+        for (String word : ngm.matchingWords("*")) {
+            double r = pearson(ngm, "fish", word, 1900, 1920);
+            if (!word.equals("fish") && r > 0) {
+                exact.add(new RankedWord(word, r));
+            }
+        }
+        exact.sort((a, b) -> Double.compare(b.score(), a.score()));
+        List<RankedWord> similar = ngm.similarWords("fish", 1900, 1920, 5);
+        assertThat(similar.size()).isEqualTo(Math.min(5, exact.size()));
+        for (int i = 0; i < similar.size(); i += 1) {
+            assertThat(similar.get(i).word()).isEqualTo(exact.get(i).word());
+            assertThat(similar.get(i).score()).isWithin(1E-9).of(exact.get(i).score());
+        }
+        assertThat(ngm.similarWords("fish", 1900, 1920, Integer.MAX_VALUE).size()).isEqualTo(exact.size());
+
+        // Over a long range, a word whose counts are those of fish doubled is the best match.
+        StringBuilder delta = new StringBuilder();
+        TimeSeries fish = ngm.countHistory("fish", 1850, 1950);
+        for (int year : fish.years()) {
+            delta.append("fishy\t").append(year).append('\t').append((long) (2 * fish.get(year))).append("\t1\n");
+        }
+        Path words = Files.createTempFile("delta", ".words.csv");
+        try {
+            Files.writeString(words, delta);
+            NGramMap patched = ngm.withDelta(words.toString(), null).withWeightMode(WeightMode.PRECOMPUTED);
+            List<RankedWord> best = patched.similarWords("fish", 1850, 1950, 3);
+            assertThat(best.get(0).word()).isEqualTo("fishy");
+            assertThat(best.get(0).score()).isWithin(1E-9).of(1.0);
+            assertThat(patched.similarWords("fish", 1850, 1950, Integer.MAX_VALUE).get(0)).isEqualTo(best.get(0));
+            for (RankedWord r : best) {
+                assertThat(r.score()).isWithin(1E-9).of(pearson(patched, "fish", r.word(), 1850, 1950));
+            }
+        } finally {
+            Files.delete(words);
+        }
+        assertThat(ngm.similarWords("notaword", 1850, 1950, 3)).isEmpty();
+    }
+
+    @Test
+    public void testNGrams() throws IOException {
+        NGramMap words = new NGramMap(SHORT_WORDS_FILE, TOTAL_COUNTS_FILE);
+        Path ngrams = Files.createTempFile("ngrams", ".csv");
+        try {
+            // Out of order, with a repeated year, and with trigrams that share words.
+            Files.writeString(ngrams, "airport security\t2007\t30\t1\nairport security\t2005\t10\t1\n"
+                    + "request a\t2006\t4\t1\nairport security check\t2006\t2\t1\n"
+                    + "airport security\t2007\t40\t1\nrequest\t2010\t1\t1\n");
+            NGramMap ngm = NGramMap.ofNGrams(List.of(SHORT_WORDS_FILE, ngrams.toString()), TOTAL_COUNTS_FILE);
+
+            // Single words are answered as before.
+            for (String word : List.of("airport", "request", "wandered")) {
+                assertThat(ngm.countHistory(word, 2000, 2009)).isEqualTo(words.countHistory(word, 2000, 2009));
+            }
+            assertThat(ngm.countHistory("request").get(2010)).isWithin(1E-10).of(1.0);
+
+            TimeSeries security = ngm.countHistory("airport security");
+            assertThat(security.years()).isEqualTo(List.of(2005, 2007));
+            assertThat(security.get(2007)).isWithin(1E-10).of(40.0);
+            assertThat(ngm.countHistory("airport   security")).isEqualTo(security);
+            assertThat(ngm.weightHistory("airport security check").get(2006))
+                    .isWithin(1E-20).of(2.0 / words.totalCountHistory().get(2006));
+            assertThat(ngm.countHistory("security airport").isEmpty()).isTrue();
+            assertThat(ngm.countHistory("airport security check now").isEmpty()).isTrue();
+            assertThat(ngm.countHistory("airport zebra").isEmpty()).isTrue();
+
+            // N-grams come in code point order, so prefixes still select a range of them.
+            assertThat(ngm.matchingWords("airport*")).isEqualTo(
+                    List.of("airport", "airport security", "airport security check"));
+            assertThat(ngm.matchingWords("request *")).isEqualTo(List.of("request a"));
+            assertThat(ngm.summedWeightHistory(List.of("airport security", "request a"), 2005, 2006).years())
+                    .isEqualTo(List.of(2005, 2006));
+        } finally {
+            Files.delete(ngrams);
+        }
+    }
+
+    @Test
+    public void testCompressedStorage() throws IOException {
+        NGramMap plain = new NGramMap(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE);
+        NGramMap compressed = plain.withStorageMode(StorageMode.COMPRESSED);
+        List<String> words = plain.matchingWords("*");
+        assertThat(compressed.matchingWords("*")).isEqualTo(words);
+        for (String word : words) {
+            assertThat(compressed.countHistory(word)).isEqualTo(plain.countHistory(word));
+            assertThat(compressed.countHistory(word, 1900, 1950)).isEqualTo(plain.countHistory(word, 1900, 1950));
+            assertThat(compressed.rangeSum(word, 1850, 1990)).isEqualTo(plain.rangeSum(word, 1850, 1990));
+        }
+        assertThat(compressed.summedWeightHistory(words, 1800, 2000))
+                .isEqualTo(plain.summedWeightHistory(words, 1800, 2000));
+        assertThat(compressed.topK(20, 1900, 1950, Ranking.RISE)).isEqualTo(plain.topK(20, 1900, 1950, Ranking.RISE));
+        assertThat(compressed.withStorageMode(StorageMode.COMPRESSED)).isSameInstanceAs(compressed);
+        assertThat(compressed.withStorageMode(StorageMode.PLAIN).countHistory("fish"))
+                .isEqualTo(plain.countHistory("fish"));
+
+        // Gaps between years, repeated, fractional and very large counts all survive exactly.
+        Path odd = Files.createTempFile("odd", ".words.csv");
+        try {
+            Files.writeString(odd, "a\t1500\t1\t1\na\t1501\t1\t1\na\t1503\t0.1\t1\na\t1504\t1e300\t1\n"
+                    + "a\t1900\t3\t1\na\t2019\t0\t1\nb\t1990\t7\t1\n");
+            NGramMap oddPlain = new NGramMap(odd.toString(), TOTAL_COUNTS_FILE);
+            NGramMap oddCompressed = oddPlain.withStorageMode(StorageMode.COMPRESSED);
+            for (String word : List.of("a", "b", "c")) {
+                assertThat(oddCompressed.countHistory(word)).isEqualTo(oddPlain.countHistory(word));
+            }
+            assertThat(oddCompressed.countHistory("a").get(1504)).isEqualTo(1e300);
+        } finally {
+            Files.delete(odd);
+        }
+    }
+
+}
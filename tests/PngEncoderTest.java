@@ -0,0 +1,79 @@
+import plotting.ChartOptions;
+import plotting.Decimation;
+import plotting.PngEncoder;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class PngEncoderTest {
+
+    /** Returns an image of a few lines on white, with some noise, like a chart with anti-aliasing. */
+    private static BufferedImage chartLike(int width, int height, int type, long seed) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.BLUE);
+        g.drawLine(0, height - 1, width - 1, 0);
+        g.setColor(Color.RED);
+        g.drawLine(0, 0, width - 1, height / 2);
+        g.dispose();
+        Random random = new Random(seed);
+        for (int i = 0; i < width * height / 20; i += 1) {
+            image.setRGB(random.nextInt(width), random.nextInt(height), random.nextInt() | 0xFF000000);
+        }
+        return image;
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertThat(actual.getWidth()).isEqualTo(expected.getWidth());
+        assertThat(actual.getHeight()).isEqualTo(expected.getHeight());
+        for (int y = 0; y < expected.getHeight(); y += 1) {
+            for (int x = 0; x < expected.getWidth(); x += 1) {
+                assertThat(actual.getRGB(x, y) & 0xFFFFFF).isEqualTo(expected.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        PngEncoder encoder = new PngEncoder();
+        // One encoder, reused across sizes, image types and levels.
+        int[][] sizes = {{800, 600}, {37, 5}, {1, 1}, {300, 900}};
+        int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_RGB,
+                BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR};
+        for (int i = 0; i < sizes.length; i += 1) {
+            for (int level : new int[] {0, 1, 9}) {
+                BufferedImage image = chartLike(sizes[i][0], sizes[i][1], types[i], i);
+                ByteArrayOutputStream png = new ByteArrayOutputStream();
+                encoder.encode(image, level, png);
+                assertSamePixels(image, ImageIO.read(new ByteArrayInputStream(png.toByteArray())));
+            }
+        }
+    }
+
+    @Test
+    public void testChartOptions() {
+        assertThat(ChartOptions.from(Map.of())).isEqualTo(ChartOptions.DEFAULT);
+        ChartOptions small = ChartOptions.from(Map.of("width", "400", "height", "300", "compression", "9",
+                "decimation", "min_max"));
+        assertThat(small).isEqualTo(new ChartOptions(400, 300, 400, 9, Decimation.MIN_MAX));
+        assertThat(ChartOptions.from(small.toParams())).isEqualTo(small);
+        // Malformed options fall back to the defaults, and others are clamped.
+        assertThat(ChartOptions.from(Map.of("width", "huge", "height", "100000", "points", "0",
+                "decimation", "fancy")))
+                .isEqualTo(new ChartOptions(800, ChartOptions.MAX_HEIGHT, 2,
+                        ChartOptions.DEFAULT.compressionLevel(), ChartOptions.DEFAULT.decimation()));
+    }
+}
@@ -0,0 +1,101 @@
+import ngrams.BatchQuery;
+import ngrams.NGramMap;
+import ngrams.RankedWord;
+import ngrams.Ranking;
+import ngrams.ShardUnavailableException;
+import ngrams.ShardedNGramMap;
+import ngrams.TimeSeries;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static utils.Utils.*;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** Tests that an NGramMap spread over shards answers as the whole map does. */
+public class ShardedNGramMapTest {
+
+    private static void assertSameHistory(TimeSeries actual, TimeSeries expected) {
+        assertThat(actual.years()).isEqualTo(expected.years());
+        for (int i = 0; i < expected.size(); i += 1) {
+            assertThat(actual.valueAt(i)).isWithin(1E-12).of(expected.valueAt(i));
+        }
+    }
+
+    @Test
+    public void testMatchesWholeMap() {
+        NGramMap whole = new NGramMap(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE);
+        List<ShardedNGramMap.Shard> shards = new ArrayList<>();
+        AtomicInteger requests = new AtomicInteger();
+        int words = 0;
+        for (int i = 0; i < 3; i += 1) {
+            NGramMap shard = NGramMap.shard(TOP_14337_WORDS_FILE, TOTAL_COUNTS_FILE, i, 3);
+            words += shard.matchingWords("*").size();
+            ShardedNGramMap.Shard local = ShardedNGramMap.local(shard);
+            shards.add(request -> {
+                requests.incrementAndGet();
+                return local.send(request);
+            });
+        }
+        assertThat(words).isEqualTo(whole.matchingWords("*").size());
+        ShardedNGramMap sharded = new ShardedNGramMap(shards);
+
+        List<String> query = List.of("cat", "dog", "fish", "nation", "queen", "station", "no such word", "cat");
+        for (String word : query) {
+            assertSameHistory(sharded.countHistory(word, 1900, 1950), whole.countHistory(word, 1900, 1950));
+            assertSameHistory(sharded.weightHistory(word, 1800, 2000), whole.weightHistory(word, 1800, 2000));
+        }
+        assertSameHistory(sharded.summedWeightHistory(query, 1850, 2000),
+                whole.summedWeightHistory(query, 1850, 2000));
+
+        // Many words take at most one request per shard.
+        requests.set(0);
+        List<TimeSeries> histories = sharded.countHistories(query, 1900, 1950);
+        assertThat(requests.get()).isAtMost(3);
+        assertThat(histories.size()).isEqualTo(query.size());
+        for (int i = 0; i < query.size(); i += 1) {
+            assertSameHistory(histories.get(i), whole.countHistory(query.get(i), 1900, 1950));
+        }
+        assertThat(histories.get(7)).isNotSameInstanceAs(histories.get(0));
+
+        List<BatchQuery> batch = List.of(new BatchQuery(query, 1900, 1950), new BatchQuery(List.of("fish"), 1800, 2000));
+        List<List<TimeSeries>> batched = sharded.batchWeightHistory(batch);
+        List<List<TimeSeries>> expected = whole.batchWeightHistory(batch);
+        for (int q = 0; q < batch.size(); q += 1) {
+            for (int i = 0; i < batch.get(q).words().size(); i += 1) {
+                assertSameHistory(batched.get(q).get(i), expected.get(q).get(i));
+            }
+        }
+
+        for (Ranking ranking : Ranking.values()) {
+            List<RankedWord> top = whole.topK(List.of(), 10, 1900, 1950, ranking);
+            List<RankedWord> actual = sharded.topK(List.of(), 10, 1900, 1950, ranking);
+            assertThat(actual.size()).isEqualTo(top.size());
+            for (int i = 0; i < top.size(); i += 1) {
+                assertThat(actual.get(i).word()).isEqualTo(top.get(i).word());
+                assertThat(actual.get(i).score()).isWithin(1E-12).of(top.get(i).score());
+            }
+        }
+    }
+
+    @Test
+    public void testFailures() {
+        NGramMap map = new NGramMap(SHORT_WORDS_FILE, TOTAL_COUNTS_FILE);
+        ShardedNGramMap.Shard hung = request -> new CompletableFuture<>();
+        ShardedNGramMap sharded = new ShardedNGramMap(List.of(ShardedNGramMap.local(map), hung),
+                Duration.ofMillis(50));
+        List<String> words = List.of("airport", "request", "wandered", "the");
+        assertThrows(ShardUnavailableException.class, () -> sharded.countHistories(words, 2000, 2010));
+
+        ShardedNGramMap one = new ShardedNGramMap(List.of(ShardedNGramMap.local(map)));
+        assertThrows(IllegalArgumentException.class, () -> one.topK(List.of(), 0, 2000, 2010, Ranking.WEIGHT));
+        assertThrows(IllegalArgumentException.class,
+                () -> NGramMap.shard(SHORT_WORDS_FILE, TOTAL_COUNTS_FILE, 2, 2));
+    }
+}
@@ -55,4 +55,30 @@ public class TimeSeriesTest {
         assertThat(totalPopulation.years()).isEmpty();
         assertThat(totalPopulation.data()).isEmpty();
     }
+
+    @Test
+    public void testRangeViewIsCopyOnWrite() {
+        TimeSeries ts = new TimeSeries();
+        for (int year = 2000; year <= 2010; year += 1) {
+            ts.put(year, (double) year);
+        }
+
+        TimeSeries view = new TimeSeries(ts, 2003, 2005);
+        assertThat(view.years()).isEqualTo(Arrays.asList(2003, 2004, 2005));
+        assertThat(view.firstKey()).isEqualTo(2003);
+        assertThat(view.lastKey()).isEqualTo(2005);
+        assertThat(view.containsKey(2006)).isFalse();
+
+        // Changes to either series must not show through to the other.
+        view.put(2004, -1.0);
+        view.put(2020, 1.0);
+        ts.put(2003, -2.0);
+        assertThat(ts.get(2004)).isWithin(1E-10).of(2004.0);
+        assertThat(ts.containsKey(2020)).isFalse();
+        assertThat(view.get(2003)).isWithin(1E-10).of(2003.0);
+        assertThat(view.get(2004)).isWithin(1E-10).of(-1.0);
+        assertThat(view.years()).isEqualTo(Arrays.asList(2003, 2004, 2005, 2020));
+
+        assertThat(new TimeSeries(ts, 2011, 2020).isEmpty()).isTrue();
+    }
 } 
\ No newline at end of file
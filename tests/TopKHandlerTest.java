@@ -0,0 +1,41 @@
+import browser.NgordnetQuery;
+import main.TopKHandler;
+import ngrams.NGramMap;
+import ngrams.Ranking;
+
+import org.junit.jupiter.api.Test;
+import spark.HaltException;
+import java.util.List;
+
+import static utils.Utils.*;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TopKHandlerTest {
+
+    @Test
+    public void testHandle() {
+        NGramMap ngm = new NGramMap(SHORT_WORDS_FILE, TOTAL_COUNTS_FILE);
+        double airport = ngm.weightHistory("airport").get(2008);
+        double request = ngm.weightHistory("request").get(2008);
+
+        TopKHandler topK = new TopKHandler(ngm, Ranking.WEIGHT);
+        assertThat(topK.handle(new NgordnetQuery(List.of("a*", "r*"), 2008, 2008, 0)))
+                .isEqualTo("[{\"word\":\"request\",\"score\":" + request + "},"
+                        + "{\"word\":\"airport\",\"score\":" + airport + "}]");
+        assertThat(topK.handle(new NgordnetQuery(List.of(""), 2008, 2008, 1)))
+                .isEqualTo("[{\"word\":\"request\",\"score\":" + request + "}]");
+
+        // airport has no data in 2006, so all of its 2008 weight is a rise.
+        TopKHandler trending = new TopKHandler(ngm, Ranking.RISE);
+        assertThat(trending.handle(new NgordnetQuery(List.of("air*"), 2006, 2008, 5)))
+                .isEqualTo("[{\"word\":\"airport\",\"score\":" + airport + "}]");
+        assertThat(trending.handle(new NgordnetQuery(List.of("x*"), 2006, 2008, 5))).isEqualTo("[]");
+
+        // A k above every vocabulary returns every word; one above MAX_K is refused.
+        assertThat(topK.handle(new NgordnetQuery(List.of(""), 2008, 2008, TopKHandler.MAX_K)))
+                .isEqualTo(topK.handle(new NgordnetQuery(List.of(""), 2008, 2008, 3)));
+        assertThrows(HaltException.class,
+                () -> topK.handle(new NgordnetQuery(List.of(""), 2008, 2008, Integer.MAX_VALUE)));
+    }
+}